@@ -0,0 +1,75 @@
+package net.rastertail.overvoltage.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.rastertail.overvoltage.BufferDriver;
+import net.rastertail.overvoltage.VoiceSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of moving mixed audio through a {@link BufferDriver}, in frames per second
+ *
+ * Each operation writes one 20ms frame of fixed pseudo-random PCM to the driver's ring
+ * and reads it back out, with and without Opus encoding on the way in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+public class BufferDriverBenchmark {
+    /** Seed for the PCM written to the driver, so every run encodes the same audio */
+    private static final long SEED = 0x5EED;
+
+    /** Whether or not the driver encodes frames to Opus */
+    @Param({"false", "true"})
+    public boolean encode;
+
+    /** The driver under test */
+    private BufferDriver driver;
+
+    /** Open the driver and fill its mix buffer */
+    @Setup
+    public void setup() {
+        this.driver = new BufferDriver(6, this.encode);
+        this.driver.open(VoiceSender.createConfig().getAudioSection(), "", null, null);
+
+        // Fill the mix buffer with noise, which is the worst case for the encoder
+        Random random = new Random(SEED);
+        ByteBuffer buffer = this.driver.buffer();
+        for (int i = 0; i + 1 < buffer.capacity(); i += Short.BYTES) {
+            buffer.putShort(i, (short) (random.nextGaussian() * 4096));
+        }
+    }
+
+    /** Free the driver */
+    @TearDown
+    public void tearDown() {
+        this.driver.close();
+    }
+
+    /**
+     * Write a frame and read it back
+     *
+     * @return the frame read back
+     */
+    @Benchmark
+    public ByteBuffer writeRead() {
+        this.driver.write();
+        return this.driver.read();
+    }
+}
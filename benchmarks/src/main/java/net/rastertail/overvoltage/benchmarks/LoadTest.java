@@ -0,0 +1,411 @@
+package net.rastertail.overvoltage.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.sun.management.OperatingSystemMXBean;
+import libsidplay.sidtune.SidTune;
+import net.rastertail.overvoltage.OpusEncoder;
+import net.rastertail.overvoltage.PlayerPool;
+import net.rastertail.overvoltage.QualityGovernor;
+import net.rastertail.overvoltage.RenderScheduler;
+import net.rastertail.overvoltage.VoiceSender;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Headless load test playing real tunes to many simulated guilds at once
+ *
+ * Every guild gets its own {@link VoiceSender} and its own send thread, which calls
+ * {@link VoiceSender#canProvide()} and {@link VoiceSender#provide20MsAudio()} every
+ * 20ms just like JDA's audio send loop, without any Discord connection. Each guild's
+ * queue is kept topped up with tunes from a local HVSC subset. After a warm-up, the
+ * test reports underruns, send loop jitter, provide call latency percentiles, and CPU
+ * and heap cost per guild.
+ */
+@Command(name = "load-test", mixinStandardHelpOptions = true)
+public class LoadTest implements Callable<Integer> {
+    /** A simulated guild, driving one voice sender from its own send thread */
+    private static class Guild implements Runnable {
+        /** The voice sender under test */
+        final VoiceSender sender;
+
+        /** When the first frame is due */
+        final long start;
+
+        /** When recording starts */
+        final long measureStart;
+
+        /** When the send loop stops */
+        final long end;
+
+        /** Time from asking for a frame to having it, per recorded frame, in nanoseconds */
+        final long[] latencies;
+
+        /** How late each recorded frame was asked for, in nanoseconds */
+        final long[] lateness;
+
+        /** Number of frames recorded */
+        int recorded;
+
+        /** Number of recorded frames which were silence because rendering fell behind */
+        int underruns;
+
+        /** Number of recorded frames for which the sender had nothing to play at all */
+        int gaps;
+
+        /**
+         * Construct a new guild
+         *
+         * @param sender the voice sender to drive
+         * @param start when the first frame is due
+         * @param measureStart when recording starts
+         * @param end when the send loop stops
+         */
+        Guild(VoiceSender sender, long start, long measureStart, long end) {
+            this.sender = sender;
+            this.start = start;
+            this.measureStart = measureStart;
+            this.end = end;
+
+            int frames = (int) ((end - measureStart) / FRAME_NANOS) + 1;
+            this.latencies = new long[frames];
+            this.lateness = new long[frames];
+        }
+
+        /** Run the send loop until the end of the test */
+        @Override
+        public void run() {
+            long deadline = this.start;
+            while (deadline < this.end) {
+                // Sleep until the next frame is due
+                long now = System.nanoTime();
+                if (deadline > now) {
+                    LockSupport.parkNanos(deadline - now);
+                    continue;
+                }
+
+                // Ask for a frame the way JDA does
+                boolean provided = this.sender.canProvide();
+                ByteBuffer frame = provided ? this.sender.provide20MsAudio() : null;
+                long done = System.nanoTime();
+
+                if (deadline >= this.measureStart && this.recorded < this.latencies.length) {
+                    this.latencies[this.recorded] = done - now;
+                    this.lateness[this.recorded] = now - deadline;
+                    this.recorded++;
+                    if (!provided || frame == null) {
+                        this.gaps++;
+                    } else if (frame.hasArray() && frame.array() == OpusEncoder.SILENCE) {
+                        this.underruns++;
+                    }
+                }
+
+                deadline += FRAME_NANOS;
+            }
+        }
+    }
+
+    /** Duration of a single audio frame in nanoseconds */
+    private static final long FRAME_NANOS = 20_000_000L;
+
+    /** How often to top up guild queues */
+    private static final long FEED_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Percentiles to report */
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 100.0};
+
+    /** Number of guilds to simulate */
+    @Option(names = {"-g", "--guilds"}, description = "Number of guilds to simulate")
+    private int guilds = 16;
+
+    /** HVSC subdirectory to pick tunes from */
+    @Option(names = {"--subset"}, description = "HVSC subdirectory to pick tunes from")
+    private String subset = "MUSICIANS";
+
+    /** Maximum number of distinct tunes to play */
+    @Option(names = {"--max-tunes"}, description = "Maximum number of distinct tunes to play")
+    private int maxTunes = 200;
+
+    /** How long to play each tune before moving on to the next */
+    @Option(names = {"--tune-seconds"}, description = "Seconds to play each tune for")
+    private int tuneSeconds = 30;
+
+    /** How long to run before recording */
+    @Option(names = {"--warmup-seconds"}, description = "Seconds to run before recording")
+    private int warmupSeconds = 15;
+
+    /** How long to record for */
+    @Option(names = {"--seconds"}, description = "Seconds to record for")
+    private int seconds = 60;
+
+    /** Number of render threads */
+    @Option(names = {"--render-threads"}, description = "Number of render threads")
+    private int renderThreads = Runtime.getRuntime().availableProcessors();
+
+    /** Render load above which quality is reduced, 0 to always render at full quality */
+    @Option(
+        names = {"--quality-degrade-percent"},
+        description = "Render load in percent above which quality is reduced, 0 to never"
+    )
+    private int qualityDegradePercent = 0;
+
+    /** Seed for picking and ordering tunes */
+    @Option(names = {"--seed"}, description = "Seed for picking and ordering tunes")
+    private long seed = 0x5EED;
+
+    /** Whether or not to fail if any frame underran */
+    @Option(names = {"--fail-on-underrun"}, description = "Exit with an error on any underrun")
+    private boolean failOnUnderrun;
+
+    /** Tunes to play */
+    private List<Path> tunes;
+
+    /** Index of the next tune to queue up */
+    private AtomicInteger nextTune;
+
+    /**
+     * Run the load test
+     *
+     * @return status code
+     */
+    @Override
+    public Integer call() throws Exception {
+        String hvscPath = System.getenv("HVSC_PATH");
+        if (hvscPath == null) {
+            System.err.println("HVSC_PATH is not set");
+            return 1;
+        }
+
+        // Pick tunes
+        this.tunes = this.pickTunes(Paths.get(hvscPath).resolve(this.subset));
+        this.nextTune = new AtomicInteger();
+        if (this.tunes.isEmpty()) {
+            System.err.println("No tunes found in " + this.subset);
+            return 1;
+        }
+        System.out.printf("Playing %d tunes to %d guilds%n", this.tunes.size(), this.guilds);
+
+        // Measure the baseline heap before anything is built
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long baseHeap = usedHeap(memory);
+
+        // Each guild may hold a playing and a pre-rolled emulator at once
+        RenderScheduler scheduler = new RenderScheduler(this.renderThreads);
+        PlayerPool pool = new PlayerPool(this.guilds * 2, 0, 3600);
+        QualityGovernor governor
+            = new QualityGovernor(this.renderThreads, this.qualityDegradePercent, 50, 30);
+
+        // Start every guild on its first tune, spreading send loops across the frame
+        long now = System.nanoTime();
+        long measureStart = now + TimeUnit.SECONDS.toNanos(this.warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(this.seconds);
+        Guild[] guilds = new Guild[this.guilds];
+        Thread[] threads = new Thread[this.guilds];
+        for (int i = 0; i < this.guilds; i++) {
+            VoiceSender sender = new VoiceSender("load-" + i, scheduler, pool, governor);
+            sender.playLive(this.nextQueuedTune());
+
+            long phase = FRAME_NANOS * i / this.guilds;
+            guilds[i] = new Guild(sender, now + phase, measureStart, end);
+            threads[i] = new Thread(guilds[i], "send-" + i);
+            threads[i].setDaemon(true);
+            threads[i].setPriority(Thread.MAX_PRIORITY);
+            threads[i].start();
+        }
+
+        // Keep queues topped up until recording starts, then take a snapshot of the heap
+        this.feed(guilds, measureStart);
+        long heap = usedHeap(memory);
+        OperatingSystemMXBean os
+            = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuStart = os.getProcessCpuTime();
+        long wallStart = System.nanoTime();
+
+        // Keep queues topped up until the end
+        this.feed(guilds, end);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long cpu = os.getProcessCpuTime() - cpuStart;
+        long wall = System.nanoTime() - wallStart;
+
+        // Tear down
+        for (Guild guild : guilds) {
+            guild.sender.close();
+        }
+        scheduler.close();
+        pool.close();
+        governor.close();
+        System.out.printf("Quality level at end: %s%n", governor.level());
+
+        return this.report(guilds, cpu, wall, heap - baseHeap) ? 0 : 1;
+    }
+
+    /**
+     * Keep every guild's queue topped up with tunes until a deadline
+     *
+     * @param guilds the guilds to feed
+     * @param until when to stop
+     */
+    private void feed(Guild[] guilds, long until) throws Exception {
+        while (System.nanoTime() < until) {
+            for (Guild guild : guilds) {
+                if (guild.sender.upcoming().isEmpty()) {
+                    guild.sender.enqueue(this.nextQueuedTune());
+                }
+            }
+            long sleep = Math.min(FEED_NANOS, until - System.nanoTime());
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(Math.max(sleep, 0)) + 1);
+        }
+    }
+
+    /**
+     * Load and prepare the next tune in rotation
+     *
+     * @return the tune to queue up
+     */
+    private VoiceSender.QueuedTune nextQueuedTune() throws Exception {
+        Path path = this.tunes.get(this.nextTune.getAndIncrement() % this.tunes.size());
+        SidTune tune = SidTune.load(path.toFile());
+        tune.getInfo().setSelectedSong(tune.getInfo().getStartSong());
+        tune.prepare();
+        String name = path.toString();
+        return new VoiceSender.QueuedTune(tune, name, name, this.tuneSeconds * 1000L);
+    }
+
+    /**
+     * Pick a reproducible sample of tunes from a directory
+     *
+     * @param dir the directory to pick from
+     *
+     * @return the picked tunes, in play order
+     */
+    private List<Path> pickTunes(Path dir) throws Exception {
+        List<Path> all;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            all = walk
+                .filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".sid"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        Collections.shuffle(all, new Random(this.seed));
+        return new ArrayList<Path>(all.subList(0, Math.min(this.maxTunes, all.size())));
+    }
+
+    /**
+     * Print the results of the test
+     *
+     * @param guilds the simulated guilds
+     * @param cpu the process CPU time spent while recording in nanoseconds
+     * @param wall the wall clock time spent recording in nanoseconds
+     * @param heap the heap used by the test, after warming up, in bytes
+     *
+     * @return whether or not the test passed
+     */
+    private boolean report(Guild[] guilds, long cpu, long wall, long heap) {
+        // Merge samples from all guilds
+        int frames = 0;
+        long underruns = 0;
+        long gaps = 0;
+        for (Guild guild : guilds) {
+            frames += guild.recorded;
+            underruns += guild.underruns;
+            gaps += guild.gaps;
+        }
+        long[] latencies = new long[frames];
+        long[] lateness = new long[frames];
+        int offset = 0;
+        for (Guild guild : guilds) {
+            System.arraycopy(guild.latencies, 0, latencies, offset, guild.recorded);
+            System.arraycopy(guild.lateness, 0, lateness, offset, guild.recorded);
+            offset += guild.recorded;
+        }
+        Arrays.sort(latencies);
+        Arrays.sort(lateness);
+
+        System.out.printf("Guilds:              %d%n", guilds.length);
+        System.out.printf("Frames recorded:     %d%n", frames);
+        System.out.printf(
+            "Underruns:           %d (%.3f%%)%n",
+            underruns,
+            100.0 * underruns / Math.max(frames, 1)
+        );
+        System.out.printf(
+            "Gaps:                %d (%.3f%%)%n",
+            gaps,
+            100.0 * gaps / Math.max(frames, 1)
+        );
+        System.out.printf("Provide latency:     %s%n", percentiles(latencies));
+        System.out.printf("Send loop jitter:    %s%n", percentiles(lateness));
+        System.out.printf(
+            "CPU per guild:       %.2f%% of a core%n",
+            100.0 * cpu / wall / guilds.length
+        );
+        System.out.printf(
+            "Heap per guild:      %.1f KiB%n",
+            heap / 1024.0 / guilds.length
+        );
+
+        return !this.failOnUnderrun || underruns == 0;
+    }
+
+    /**
+     * Format the reported percentiles of some sorted samples
+     *
+     * @param sorted the samples in nanoseconds, in ascending order
+     */
+    private static String percentiles(long[] sorted) {
+        if (sorted.length == 0) {
+            return "no samples";
+        }
+
+        StringBuilder out = new StringBuilder();
+        for (double p : PERCENTILES) {
+            int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            index = Math.min(Math.max(index, 0), sorted.length - 1);
+            String label = p == 100.0 ? "max" : "p" + String.valueOf(p).replaceAll("\\.0$", "");
+            out.append(String.format("%s=%.1fus  ", label, sorted[index] / 1000.0));
+        }
+        return out.toString().trim();
+    }
+
+    /**
+     * Measure the heap in use after a full collection
+     *
+     * @param memory the memory bean to ask
+     *
+     * @return the heap in use in bytes
+     */
+    private static long usedHeap(MemoryMXBean memory) {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Run the load test
+     *
+     * @param args commandline arguments
+     */
+    public static void main(String[] args) {
+        Integer exitCode = new CommandLine(new LoadTest()).execute(args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,103 @@
+package net.rastertail.overvoltage.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import net.rastertail.overvoltage.SidDatabase;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of {@link SidDatabase#search(String)} over a synthetic index
+ *
+ * The index is built in memory from a {@link SyntheticHvsc} and queried with a fixed
+ * rotation of generated queries. With the result cache disabled every search hits the
+ * index; with it enabled the rotation fits in the cache, so this measures cache hits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+public class SearchBenchmark {
+    /** Seed for the synthetic collection and queries */
+    private static final long SEED = 0x5EED;
+
+    /** Number of distinct queries to rotate through */
+    private static final int QUERIES = 512;
+
+    /** Number of tunes in the synthetic collection */
+    @Param({"50000"})
+    public int tunes;
+
+    /** Number of queries to cache results for, or 0 to always hit the index */
+    @Param({"0", "1024"})
+    public int cacheSize;
+
+    /** Directory holding the synthetic collection */
+    private Path hvsc;
+
+    /** The database under test */
+    private SidDatabase sidDb;
+
+    /** Queries to rotate through */
+    private String[] queries;
+
+    /** Index of the next query to run */
+    private int next;
+
+    /**
+     * Generate the collection and index it
+     *
+     * @throws Exception if indexing fails
+     */
+    @Setup
+    public void setup() throws Exception {
+        this.hvsc = Files.createTempDirectory("overvoltage-bench-");
+        SyntheticHvsc.write(this.hvsc, this.tunes, SEED);
+
+        SidDatabase.Options options = new SidDatabase.Options();
+        options.cacheSize = this.cacheSize;
+        options.refreshSeconds = 0;
+        this.sidDb = new SidDatabase(this.hvsc, new ByteBuffersDirectory(), true, options);
+
+        this.queries = SyntheticHvsc.queries(QUERIES, SEED);
+    }
+
+    /**
+     * Close the database and delete the collection
+     *
+     * @throws Exception if cleaning up fails
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        this.sidDb.close();
+        SyntheticHvsc.delete(this.hvsc);
+    }
+
+    /**
+     * Run the next query in the rotation
+     *
+     * @return the search results
+     */
+    @Benchmark
+    public ArrayList<SidDatabase.SidInfo> search() throws Exception {
+        String query = this.queries[this.next];
+        this.next = (this.next + 1) % this.queries.length;
+        return this.sidDb.search(query);
+    }
+}
@@ -0,0 +1,176 @@
+package net.rastertail.overvoltage.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import libsidplay.config.IConfig;
+import libsidplay.sidtune.SidTune;
+import net.rastertail.overvoltage.SidPlayer;
+import net.rastertail.overvoltage.VoiceSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Emulation speed of {@link SidPlayer}, in emulated seconds per second
+ *
+ * Each operation renders and drains one second of Opus packets, exactly as a voice
+ * sender would, so the score is directly how many tunes one render thread could keep
+ * fed. Tunes are taken from the HVSC at HVSC_PATH: for each SID count, the first tune
+ * in path order with that many chips is played, so runs against the same HVSC release
+ * always play the same tunes. A specific tune can be given with {@code -p tune=<path>}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+public class SidPlayerBenchmark {
+    /** Number of audio buffers per second of emulated time */
+    private static final int FRAMES_PER_SECOND = 50;
+
+    /** Seconds to play before measuring, to get past tune initialization */
+    private static final int LEAD_IN_SECONDS = 2;
+
+    /** Number of SID chips the tune should use */
+    @Param({"1", "2", "3"})
+    public int sids;
+
+    /** HVSC path of a specific tune to play, or empty to pick one by SID count */
+    @Param({""})
+    public String tune;
+
+    /** The player under test */
+    private SidPlayer player;
+
+    /**
+     * Load the tune and start playing it
+     *
+     * @throws Exception if the tune cannot be found or loaded
+     */
+    @Setup
+    public void setup() throws Exception {
+        String hvscPath = System.getenv("HVSC_PATH");
+        if (hvscPath == null) {
+            throw new IllegalStateException("HVSC_PATH is not set");
+        }
+        Path hvsc = Paths.get(hvscPath);
+        IConfig config = VoiceSender.createConfig();
+
+        // Pick the tune
+        SidTune sidTune = this.tune.isEmpty()
+            ? findTune(hvsc, config, this.sids)
+            : SidTune.load(hvsc.resolve(this.tune).toFile());
+        sidTune.getInfo().setSelectedSong(sidTune.getInfo().getStartSong());
+        sidTune.prepare();
+
+        // Start playing and get past initialization
+        this.player = new SidPlayer(config);
+        this.player.play(sidTune, this.tune.isEmpty() ? this.sids + "SID" : this.tune);
+        for (int i = 0; i < LEAD_IN_SECONDS; i++) {
+            this.renderSecond();
+        }
+    }
+
+    /** Free the player */
+    @TearDown
+    public void tearDown() {
+        this.player.close();
+    }
+
+    /**
+     * Render and drain one second of audio
+     *
+     * @return the total size of the packets produced
+     */
+    @Benchmark
+    public long renderSecond() throws InterruptedException {
+        long bytes = 0;
+        int frames = 0;
+        while (frames < FRAMES_PER_SECOND) {
+            int count = Math.min(this.player.driver().free(), FRAMES_PER_SECOND - frames);
+            this.player.render(count);
+            frames += count;
+
+            while (this.player.driver().hasData()) {
+                bytes += this.player.driver().read().remaining();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Find the first tune in path order using a given number of SID chips
+     *
+     * Multi-SID tunes are recognized by the HVSC's file naming first, and the chip count
+     * is then checked against the tune header.
+     *
+     * @param hvsc the HVSC root
+     * @param config the emulator configuration to check chip usage against
+     * @param sids the number of SID chips to look for
+     *
+     * @return the loaded tune
+     *
+     * @throws IOException if no such tune exists
+     */
+    private static SidTune findTune(Path hvsc, IConfig config, int sids) throws IOException {
+        Pattern multi = Pattern.compile(".*_[23]SID\\.sid$", Pattern.CASE_INSENSITIVE);
+        String suffix = "_" + sids + "SID.sid";
+
+        try (Stream<Path> walk = Files.walk(hvsc)) {
+            Iterator<Path> paths = walk
+                .filter(Files::isRegularFile)
+                .map(Path::toString)
+                .filter(p -> sids == 1
+                    ? p.endsWith(".sid") && !multi.matcher(p).matches()
+                    : p.endsWith(suffix))
+                .sorted()
+                .map(Paths::get)
+                .iterator();
+
+            while (paths.hasNext()) {
+                Path path = paths.next();
+                try {
+                    SidTune sidTune = SidTune.load(path.toFile());
+                    if (chipCount(config, sidTune) == sids) {
+                        return sidTune;
+                    }
+                } catch (Exception e) {
+                    // Not a usable tune, keep looking
+                }
+            }
+        }
+
+        throw new IOException("No " + sids + "SID tune found in " + hvsc);
+    }
+
+    /**
+     * Count the SID chips a tune uses
+     *
+     * @param config the emulator configuration
+     * @param sidTune the tune to check
+     */
+    private static int chipCount(IConfig config, SidTune sidTune) {
+        int count = 1;
+        while (count < 3 && SidTune.isSIDUsed(config.getEmulationSection(), sidTune, count)) {
+            count++;
+        }
+        return count;
+    }
+}
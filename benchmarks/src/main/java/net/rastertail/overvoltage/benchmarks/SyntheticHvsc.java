@@ -0,0 +1,188 @@
+package net.rastertail.overvoltage.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A generated stand-in for the HVSC, for benchmarking search without the real thing
+ *
+ * Tunes are minimal PSID files whose titles, artists and release info are made up of
+ * pseudo-words. Everything is derived from a seed, so the same seed always produces
+ * the same collection and the same queries against it.
+ */
+public class SyntheticHvsc {
+    /** Syllables that pseudo-words are made of */
+    private static final String[] SYLLABLES = {
+        "ba", "cor", "da", "el", "fi", "gan", "hu", "ix", "jo", "ka", "lum", "mo",
+        "nar", "o", "pra", "qui", "ron", "sa", "tek", "u", "vo", "wer", "xa", "zed",
+    };
+
+    /** Length of a PSID v2 header in bytes */
+    private static final int HEADER_LENGTH = 0x7C;
+
+    /** Length of each text field in a PSID header in bytes */
+    private static final int FIELD_LENGTH = 32;
+
+    /** Address the tune's code is loaded at */
+    private static final int LOAD_ADDRESS = 0x1000;
+
+    /**
+     * Write a synthetic collection of tunes
+     *
+     * @param dir the directory to write tunes to
+     * @param count the number of tunes to write
+     * @param seed the seed to derive the collection from
+     *
+     * @throws IOException if a tune cannot be written
+     */
+    public static void write(Path dir, int count, long seed) throws IOException {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            String title = phrase(random, 1 + random.nextInt(3));
+            String artist = phrase(random, 2);
+            String released = (1982 + random.nextInt(40)) + " " + phrase(random, 1);
+
+            // Lay tunes out like the HVSC's MUSICIANS directory
+            String artistDir = artist.replace(' ', '_');
+            Path path = dir.resolve("MUSICIANS")
+                .resolve(artistDir.substring(0, 1))
+                .resolve(artistDir)
+                .resolve(title.replace(' ', '_') + "_" + i + ".sid");
+            Files.createDirectories(path.getParent());
+            Files.write(path, psid(title, artist, released));
+        }
+    }
+
+    /**
+     * Generate search queries against a synthetic collection
+     *
+     * Queries are built from the same vocabulary as the tunes, so most of them match
+     * something.
+     *
+     * @param count the number of queries to generate
+     * @param seed the seed to derive the queries from
+     *
+     * @return the queries
+     */
+    public static String[] queries(int count, long seed) {
+        Random random = new Random(seed);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    // A single title word
+                    queries[i] = word(random);
+                    break;
+                case 1:
+                    // A pair of title words
+                    queries[i] = phrase(random, 2);
+                    break;
+                default:
+                    // A title word by an artist
+                    queries[i] = word(random) + " artist:" + word(random);
+                    break;
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Delete a synthetic collection
+     *
+     * @param dir the directory the collection was written to
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    public static void delete(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            Path[] paths = walk.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Build a minimal PSID file whose init and play routines just return
+     *
+     * @param title the tune's title
+     * @param artist the tune's artist
+     * @param released the tune's release info
+     *
+     * @return the file contents
+     */
+    private static byte[] psid(String title, String artist, String released) {
+        ByteBuffer psid = ByteBuffer.allocate(HEADER_LENGTH + 4);
+        psid.put("PSID".getBytes(StandardCharsets.US_ASCII));
+        psid.putShort((short) 2);
+        psid.putShort((short) HEADER_LENGTH);
+        psid.putShort((short) 0);
+        psid.putShort((short) LOAD_ADDRESS);
+        psid.putShort((short) (LOAD_ADDRESS + 1));
+        psid.putShort((short) 1);
+        psid.putShort((short) 1);
+        psid.putInt(0);
+        putField(psid, title);
+        putField(psid, artist);
+        putField(psid, released);
+
+        // Leave flags and extra chip addresses zeroed, then load address and code
+        psid.position(HEADER_LENGTH);
+        psid.put((byte) (LOAD_ADDRESS & 0xFF));
+        psid.put((byte) (LOAD_ADDRESS >> 8));
+        psid.put((byte) 0x60);
+        psid.put((byte) 0x60);
+        return psid.array();
+    }
+
+    /**
+     * Write a zero-padded text field of a PSID header
+     *
+     * @param psid the header being written
+     * @param value the field value
+     */
+    private static void putField(ByteBuffer psid, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        int length = Math.min(bytes.length, FIELD_LENGTH);
+        psid.put(bytes, 0, length);
+        psid.position(psid.position() + FIELD_LENGTH - length);
+    }
+
+    /**
+     * Generate a capitalized phrase of pseudo-words
+     *
+     * @param random the source of randomness
+     * @param words the number of words
+     */
+    private static String phrase(Random random, int words) {
+        StringBuilder phrase = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            String word = word(random);
+            if (i > 0) {
+                phrase.append(' ');
+            }
+            phrase.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+        return phrase.toString();
+    }
+
+    /**
+     * Generate a lowercase pseudo-word
+     *
+     * @param random the source of randomness
+     */
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        int syllables = 2 + random.nextInt(2);
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+}
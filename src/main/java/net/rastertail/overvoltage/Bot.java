@@ -4,6 +4,14 @@ import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import libsidplay.sidtune.SidTune;
 import sidplay.ini.IniConfig;
@@ -14,10 +22,14 @@ import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.GuildVoiceState;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.events.guild.voice.GuildVoiceLeaveEvent;
+import net.dv8tion.jda.api.events.interaction.command.CommandAutoCompleteInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.component.SelectMenuInteractionEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.interactions.InteractionHook;
 import net.dv8tion.jda.api.interactions.callbacks.IReplyCallback;
+import net.dv8tion.jda.api.interactions.commands.Command;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
@@ -32,16 +44,193 @@ public class Bot extends ListenerAdapter {
     /** Logger for this class */
     private final Logger LOG = LoggerFactory.getLogger(Bot.class);
 
-    /** The SID database to search from in commands */
-    private SidDatabase sidDb;
+    /** Maximum number of autocomplete choices Discord accepts */
+    private static final int MAX_CHOICES = 25;
+
+    /** Maximum length of an autocomplete choice name or value */
+    private static final int MAX_CHOICE_LENGTH = 100;
+
+    /** Select menu ID for choosing a tune to play */
+    private static final String PLAY_MENU = "sid_chooser";
+
+    /** Select menu ID for choosing a tune to queue */
+    private static final String QUEUE_MENU = "sid_queue";
+
+    /** How long to wait for a voice sender to take up a seek */
+    private static final long SEEK_TIMEOUT_SECONDS = 5;
+
+    /**
+     * The answer to a deferred interaction
+     *
+     * A command answers exactly once: whichever of the command itself or its timeout
+     * gets there first wins, and later answers are dropped. Before doing anything which
+     * cannot be taken back, a command commits to its reply, after which the timeout no
+     * longer answers; a command which fails to commit was timed out and must give up.
+     */
+    private static final class Reply {
+        /** Neither committed to nor answered */
+        private static final int OPEN = 0;
+
+        /** Committed to by the command, but not yet answered */
+        private static final int COMMITTED = 1;
+
+        /** Answered */
+        private static final int ANSWERED = 2;
+
+        /** The hook of the deferred interaction */
+        private final InteractionHook hook;
+
+        /** Whether the interaction is open, committed to or answered */
+        private final AtomicInteger state = new AtomicInteger(OPEN);
+
+        /**
+         * Construct a new reply
+         *
+         * @param hook the hook of the deferred interaction
+         */
+        Reply(InteractionHook hook) {
+            this.hook = hook;
+        }
+
+        /**
+         * Answer publicly
+         *
+         * @param text the message to send
+         */
+        void send(String text) {
+            if (this.claim()) {
+                this.hook.editOriginal(text).queue();
+            }
+        }
+
+        /**
+         * Answer publicly with a formatted message
+         *
+         * @param format the message format string
+         * @param args the format arguments
+         */
+        void sendFormat(String format, Object... args) {
+            this.send(String.format(format, args));
+        }
+
+        /**
+         * Answer only to the user who sent the command
+         *
+         * The deferred placeholder is public, so it is replaced with a new ephemeral
+         * message.
+         *
+         * @param text the message to send
+         * @param menu a select menu to attach, or null for none
+         */
+        void sendPrivately(String text, SelectMenu menu) {
+            if (this.claim()) {
+                this.hook.deleteOriginal().flatMap(v -> menu != null
+                    ? this.hook.sendMessage(text).setEphemeral(true).addActionRow(menu)
+                    : this.hook.sendMessage(text).setEphemeral(true)
+                ).queue();
+            }
+        }
+
+        /**
+         * Answer that the command took too long, unless it has committed to answering
+         *
+         * @param text the message to send
+         */
+        void sendTimeout(String text) {
+            if (this.state.compareAndSet(OPEN, ANSWERED)) {
+                this.hook.editOriginal(text).queue();
+            }
+        }
+
+        /**
+         * Commit to answering, so that the command may go on to change things
+         *
+         * @return false if the command timed out meanwhile, and must give up
+         */
+        boolean commit() {
+            return this.state.compareAndSet(OPEN, COMMITTED) || this.state.get() == COMMITTED;
+        }
+
+        /**
+         * Take the right to answer
+         *
+         * @return false if the interaction has already been answered
+         */
+        private boolean claim() {
+            int current = this.state.get();
+            while (current != ANSWERED) {
+                if (this.state.compareAndSet(current, ANSWERED)) {
+                    return true;
+                }
+                current = this.state.get();
+            }
+            return false;
+        }
+    }
+
+    /** A command's work, run off JDA's event thread */
+    private interface Task {
+        /**
+         * Run the task
+         *
+         * @param reply the answer to the command's interaction
+         *
+         * @throws Exception if anything goes wrong
+         */
+        void run(Reply reply) throws Exception;
+    }
+
+    /** The SID database to search from in commands, once it has loaded */
+    private CompletableFuture<SidDatabase> sidDb;
+
+    /** The render scheduler shared by all voice senders */
+    private RenderScheduler scheduler;
+
+    /** Cache of pre-rendered tunes, or null if disabled */
+    private OpusCache opusCache;
+
+    /** The shared radio station */
+    private Station station;
+
+    /** The pool voice senders take emulators from */
+    private PlayerPool playerPool;
+
+    /** Decides the quality voice senders render at */
+    private QualityGovernor governor;
+
+    /** Thread disconnecting from idle voice channels, if started */
+    private ScheduledExecutorService reaper;
+
+    /** Runs commands off JDA's event thread */
+    private CommandQueue commands;
 
     /**
      * Construct a new event listener
      *
-     * @param sidDb the SID database to search from
+     * @param sidDb the SID database to search from, which may still be loading
+     * @param scheduler the render scheduler to run voice senders on
+     * @param opusCache the cache of pre-rendered tunes, or null to always emulate
+     * @param station the shared radio station
+     * @param playerPool the pool voice senders take emulators from
+     * @param governor decides the quality voice senders render at
+     * @param commands the queue to run commands on
      */
-    public Bot(SidDatabase sidDb) {
+    public Bot(
+        CompletableFuture<SidDatabase> sidDb,
+        RenderScheduler scheduler,
+        OpusCache opusCache,
+        Station station,
+        PlayerPool playerPool,
+        QualityGovernor governor,
+        CommandQueue commands
+    ) {
         this.sidDb = sidDb;
+        this.scheduler = scheduler;
+        this.opusCache = opusCache;
+        this.station = station;
+        this.playerPool = playerPool;
+        this.governor = governor;
+        this.commands = commands;
     }
 
     /**
@@ -54,7 +243,33 @@ public class Bot extends ListenerAdapter {
 
         commands.addCommands(
             Commands.slash("play", "Search for a tune to play")
-                .addOption(OptionType.STRING, "query", "What to search for", true)
+                .addOptions(
+                    new OptionData(OptionType.STRING, "query", "What to search for", true, true),
+                    new OptionData(OptionType.INTEGER, "subtune", "Which subtune to play", false)
+                        .setMinValue(1)
+                )
+        );
+
+        commands.addCommands(
+            Commands.slash("queue", "Search for a tune to play next")
+                .addOptions(
+                    new OptionData(OptionType.STRING, "query", "What to search for", true, true),
+                    new OptionData(OptionType.INTEGER, "subtune", "Which subtune to play", false)
+                        .setMinValue(1)
+                )
+        );
+
+        commands.addCommands(
+            Commands.slash("skip", "Skip to the next queued tune")
+        );
+
+        commands.addCommands(
+            Commands.slash("seek", "Jump to a position in the current tune")
+                .addOption(OptionType.STRING, "position", "Where to jump to, e.g. 1:30", true)
+        );
+
+        commands.addCommands(
+            Commands.slash("radio", "Tune in to the C64 radio station")
         );
 
         commands.addCommands(
@@ -65,6 +280,46 @@ public class Bot extends ListenerAdapter {
         LOG.info("Updated slash commands");
     }
 
+    /**
+     * Periodically disconnect from voice in guilds where nothing has played for a while
+     *
+     * Disconnecting fires a voice leave event, which frees the guild's voice sender.
+     *
+     * @param jda the JDA bot instance
+     * @param idleSeconds how long to stay connected without playing anything
+     */
+    public void startIdleReaper(JDA jda, long idleSeconds) {
+        long idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        long period = Math.max(idleSeconds / 4, 1);
+
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "voice-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        this.reaper.scheduleWithFixedDelay(() -> {
+            for (AudioManager audioManager : jda.getAudioManagers()) {
+                Object handler = audioManager.getSendingHandler();
+                if (
+                    handler instanceof VoiceSender
+                    && ((VoiceSender) handler).silentNanos() > idleNanos
+                    && audioManager.isConnected()
+                ) {
+                    LOG.debug("Leaving idle {}...", audioManager.getGuild());
+                    audioManager.closeAudioConnection();
+                }
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    /** Stop the idle reaper, if running, and stop running commands */
+    public void close() {
+        if (this.reaper != null) {
+            this.reaper.shutdownNow();
+        }
+        this.commands.close();
+    }
+
     /**
      * Slash command handler
      *
@@ -77,33 +332,94 @@ public class Bot extends ListenerAdapter {
             return;
         }
 
-        try {
-            // Dispatch event handler
+        this.dispatch(ev, reply -> {
             switch (ev.getName()) {
                 case "play":
+                case "queue":
+                    // Play autocompleted tunes directly
+                    boolean enqueue = ev.getName().equals("queue");
+                    String query = ev.getOption("query").getAsString();
+                    OptionMapping subtuneOption = ev.getOption("subtune");
+                    int subtune = subtuneOption != null ? (int) subtuneOption.getAsLong() : 0;
+                    SidDatabase sidDb = this.database(reply);
+                    if (sidDb == null) {
+                        break;
+                    }
+
+                    SidDatabase.SidInfo exact = sidDb.find(query);
+                    if (exact != null) {
+                        this.playTune(ev, reply, exact.path, subtune, enqueue);
+                        break;
+                    }
+
                     // Perform search
-                    ArrayList<SidDatabase.SidInfo> results
-                        = this.sidDb.search(ev.getOption("query").getAsString());
+                    ArrayList<SidDatabase.SidInfo> results = sidDb.search(query);
 
                     if (results.size() == 0) {
                         // No results found
                         LOG.debug("Search yielded no results");
-                        ev.reply("❌ No results found!").queue();
+                        reply.send("❌ No results found!");
                     } else if (results.size() == 1) {
                         // Exactly one result found
-                        this.playTune(ev, results.get(0).path);
+                        this.playTune(ev, reply, results.get(0).path, subtune, enqueue);
                     } else {
-                        // Multiple results found
-                        this.promptChoice(ev, results);
+                        // Multiple results found, remembering the subtune in the menu ID
+                        String menuId = (enqueue ? QUEUE_MENU : PLAY_MENU) + ":" + subtune;
+                        this.promptChoice(reply, results, menuId);
                     }
 
+                    break;
+                case "skip":
+                    this.skip(ev, reply);
+                    break;
+                case "seek":
+                    this.seek(ev, reply, ev.getOption("position").getAsString());
+                    break;
+                case "radio":
+                    this.tuneIn(ev, reply);
                     break;
                 case "leave":
-                    this.leave(ev);
+                    this.leave(ev, reply);
                     break;
             }
+        });
+    }
+
+    /**
+     * Autocomplete handler
+     *
+     * @param ev autocomplete interaction event
+     **/
+    @Override
+    public void onCommandAutoCompleteInteraction(CommandAutoCompleteInteractionEvent ev) {
+        boolean searchCommand = ev.getName().equals("play") || ev.getName().equals("queue");
+        if (!searchCommand || !ev.getFocusedOption().getName().equals("query")) {
+            return;
+        }
+
+        // Offer nothing until the database has loaded
+        SidDatabase sidDb = this.database(null);
+        if (sidDb == null) {
+            ev.replyChoices(Collections.<Command.Choice>emptyList()).queue();
+            return;
+        }
+
+        try {
+            // Offer suggested tunes, with their HVSC path as the submitted value
+            ArrayList<Command.Choice> choices = new ArrayList<Command.Choice>();
+            for (TuneSuggester.Suggestion s : sidDb.suggest(
+                ev.getFocusedOption().getValue(),
+                MAX_CHOICES
+            )) {
+                String value = s.path.toString();
+                if (value.length() <= MAX_CHOICE_LENGTH) {
+                    choices.add(new Command.Choice(truncate(s.name, MAX_CHOICE_LENGTH), value));
+                }
+            }
+
+            ev.replyChoices(choices).queue();
         } catch (Exception e) {
-            ev.reply(e.toString()).setEphemeral(true).queue();
+            LOG.warn("Autocomplete failed: {}", e);
         }
     }
 
@@ -114,8 +430,53 @@ public class Bot extends ListenerAdapter {
      **/
     @Override
     public void onSelectMenuInteraction(SelectMenuInteractionEvent ev) {
-        // TODO Do not assume all menu interactions should lead to a tune playing
-        this.playTune(ev, Paths.get(ev.getValues().get(0)));
+        // Split off the subtune requested along with the search
+        String[] id = ev.getComponentId().split(":", 2);
+        if (ev.getGuild() == null || !(id[0].equals(PLAY_MENU) || id[0].equals(QUEUE_MENU))) {
+            return;
+        }
+
+        int subtune;
+        try {
+            subtune = id.length > 1 ? Integer.parseInt(id[1]) : 0;
+        } catch (NumberFormatException e) {
+            LOG.warn("Malformed select menu ID {}", ev.getComponentId());
+            return;
+        }
+
+        Path path = Paths.get(ev.getValues().get(0));
+        boolean enqueue = id[0].equals(QUEUE_MENU);
+        this.dispatch(ev, reply -> this.playTune(ev, reply, path, subtune, enqueue));
+    }
+
+    /**
+     * Acknowledge an interaction and queue up the command answering it
+     *
+     * Discord wants interactions acknowledged within three seconds, which searching,
+     * loading a tune or starting an emulator can take on their own. So the interaction
+     * is deferred right away, and the command answers later through its hook.
+     *
+     * @param ev the interaction to answer
+     * @param task the work answering it
+     */
+    private void dispatch(IReplyCallback ev, Task task) {
+        ev.deferReply().queue();
+        Reply reply = new Reply(ev.getHook());
+
+        boolean accepted = this.commands.submit(
+            ev.getGuild().getId(),
+            () -> {
+                try {
+                    task.run(reply);
+                } catch (Exception e) {
+                    reply.sendPrivately(e.toString(), null);
+                }
+            },
+            () -> reply.sendTimeout("⌛ That took too long and was called off, please try again!")
+        );
+        if (!accepted) {
+            reply.sendPrivately("⏳ I am busy right now, please try again in a moment!", null);
+        }
     }
 
     @Override
@@ -126,7 +487,8 @@ public class Bot extends ListenerAdapter {
             AudioManager audioManager = ev.getGuild().getAudioManager();
             LOG.debug("Cleaning up {}...", ev.getGuild());
 
-            // Drop voice handler
+            // Free and drop voice handler
+            closeHandler(audioManager);
             audioManager.setSendingHandler(null);
         } else if (ev.getChannelLeft().getMembers().size() == 1) {
             // Disconnect from voice if we are the only one left
@@ -136,75 +498,148 @@ public class Bot extends ListenerAdapter {
     }
 
     /**
-     * Play a SID tune
+     * Play a SID tune, or add it to the queue
      *
      * @param ev the event that prompted the tune to play
+     * @param reply the answer to the event
      * @param path the HVSC path to the tune
+     * @param subtune the subtune to play, or 0 for the tune's default
+     * @param enqueue whether to queue the tune up rather than play it right away
      */
-    private void playTune(IReplyCallback ev, Path path) {
+    private void playTune(
+        IReplyCallback ev,
+        Reply reply,
+        Path path,
+        int subtune,
+        boolean enqueue
+    ) {
         LOG.debug("Playing SID tune from {}", path);
 
+        SidDatabase sidDb = this.database(reply);
+        if (sidDb == null) {
+            return;
+        }
+
         try {
             // Load tune and extract info
-            SidTune tune = this.sidDb.load(path);
+            SidTune tune = sidDb.load(path);
             String[] tuneInfo = tune.getInfo().getInfoString().toArray(new String[] {});
 
+            // Pick the subtune, bailing out if it does not exist
+            int songs = tune.getInfo().getSongs();
+            int song = subtune > 0 ? subtune : tune.getInfo().getStartSong();
+            if (song > songs) {
+                reply.sendFormat("❌ This tune only has %d subtunes!", songs);
+                return;
+            }
+
             // Prepare tune for playback
-            tune.getInfo().setSelectedSong(1);
+            tune.getInfo().setSelectedSong(song);
             tune.prepare();
+            long lengthMs = sidDb.songLength(path, song);
+
+            // Bail out before touching voice if we took too long getting here
+            if (!reply.commit()) {
+                return;
+            }
 
             // Find voice channel, bailing out if it does not exist
             Member member = ev.getMember();
             GuildVoiceState voiceState = member.getVoiceState();
             AudioChannel voiceChannel = voiceState.getChannel();
             if (voiceChannel == null) {
-                ev.reply("❌ You are not in a voice channel!").queue();
+                reply.send("❌ You are not in a voice channel!");
                 return;
             }
 
             // Create guild voice sender if it does not yet exist
             Guild guild = voiceChannel.getGuild();
             AudioManager audioManager = guild.getAudioManager();
-            if (audioManager.getSendingHandler() == null) {
+            if (!(audioManager.getSendingHandler() instanceof VoiceSender)) {
                 LOG.debug("Setting up on {}...", guild);
-                VoiceSender sender = new VoiceSender();
+                closeHandler(audioManager);
+                VoiceSender sender = new VoiceSender(
+                    guild.getId(),
+                    this.scheduler,
+                    this.playerPool,
+                    this.governor
+                );
                 audioManager.setSendingHandler(sender);
             }
 
             // Connect to voice
             audioManager.openAudioConnection(voiceChannel);
 
-            // Start playing tune
-            ((VoiceSender) audioManager.getSendingHandler()).runInRenderThread(
-                player -> player.play(tune)
-            );
+            // Queue up the tune
+            VoiceSender sender = (VoiceSender) audioManager.getSendingHandler();
+            String songInfo = songs > 1 ? String.format(" (subtune %d/%d)", song, songs) : "";
+            String title = tuneInfo[0] + " by " + tuneInfo[1] + songInfo;
+            VoiceSender.QueuedTune queued
+                = new VoiceSender.QueuedTune(tune, path.toString(), title, lengthMs);
+            if (enqueue) {
+                sender.enqueue(queued);
+                reply.sendFormat(
+                    "📋 Queued **%s** by **%s**%s!",
+                    tuneInfo[0],
+                    tuneInfo[1],
+                    songInfo
+                );
+                return;
+            }
+
+            // Start playing tune, from the cache if it has been pre-rendered
+            OpusCache.Stream cached = null;
+            if (this.opusCache != null) {
+                String key = OpusCache.key(path, song, queued.frames);
+                cached = this.opusCache.open(key);
+                if (cached == null) {
+                    this.opusCache.recordPlay(
+                        key,
+                        queued.path,
+                        () -> sidDb.load(path),
+                        song,
+                        queued.frames
+                    );
+                }
+            }
+
+            if (cached != null) {
+                LOG.debug("Playing {} from the Opus cache", path);
+                sender.playCached(cached);
+            } else if (!this.playerPool.available() || !sender.playLive(queued)) {
+                reply.send("❌ Too many tunes are playing right now, try again later!");
+                return;
+            }
 
             // Send playback message
-            ev.replyFormat(
-                "🎶 Now playing **%s** by **%s**!",
+            reply.sendFormat(
+                "🎶 Now playing **%s** by **%s**%s!",
                 tuneInfo[0],
-                tuneInfo[1]
-            ).queue();
+                tuneInfo[1],
+                songInfo
+            );
         } catch (Exception e) {
             LOG.error("Error starting SID playback: {}", e);
-            ev.reply("❌ An unexpected error occurred!").queue();
+            reply.send("❌ An unexpected error occurred!");
         }
     }
 
     /**
      * Prompt the user to select from a choice of multiple tunes
      *
-     * @param ev slash command interaction event
+     * @param reply the answer to the slash command
      * @param choices the tunes to choose from
+     * @param menuId the select menu ID, which decides what happens to the chosen tune
      **/
     private void promptChoice(
-        SlashCommandInteractionEvent ev,
-        ArrayList<SidDatabase.SidInfo> choices
+        Reply reply,
+        ArrayList<SidDatabase.SidInfo> choices,
+        String menuId
     ) {
         LOG.debug("Search yielded multiple results... prompting for a choice!");
 
         // Build reply menu
-        SelectMenu.Builder menu = SelectMenu.create("sid_chooser")
+        SelectMenu.Builder menu = SelectMenu.create(menuId)
             .setPlaceholder("Make a choice...")
             .setRequiredRange(1, 1);
 
@@ -217,24 +652,137 @@ public class Bot extends ListenerAdapter {
         }
 
         // Send reply
-        ev.reply("Please make a selection")
-            .addActionRow(menu.build())
-            .setEphemeral(true)
-            .queue();
+        reply.sendPrivately("Please make a selection", menu.build());
+    }
+
+    /**
+     * Skip to the next queued tune
+     *
+     * @param ev the event that prompted this command
+     * @param reply the answer to the event
+     */
+    private void skip(IReplyCallback ev, Reply reply) {
+        Object handler = ev.getGuild().getAudioManager().getSendingHandler();
+        if (!(handler instanceof VoiceSender)) {
+            reply.send("❌ Nothing to skip!");
+            return;
+        }
+
+        // Give up if timed out, as skipping cannot be taken back
+        if (!reply.commit()) {
+            return;
+        }
+        ((VoiceSender) handler).skip();
+        reply.send("⏭️ Skipped!");
+    }
+
+    /**
+     * Jump to a position in the current tune
+     *
+     * @param ev the event that prompted this command
+     * @param reply the answer to the event
+     * @param position the position as seconds or minutes:seconds
+     */
+    private void seek(
+        IReplyCallback ev,
+        Reply reply,
+        String position
+    ) {
+        Object handler = ev.getGuild().getAudioManager().getSendingHandler();
+        if (!(handler instanceof VoiceSender)) {
+            reply.send("❌ Nothing to seek in!");
+            return;
+        }
+
+        // Parse the position, capping it just past the furthest position so it cannot overflow
+        long seconds = 0;
+        try {
+            for (String part : position.trim().split(":")) {
+                if (!part.matches("[0-9]{1,6}")) {
+                    throw new NumberFormatException(part);
+                }
+                seconds = Math.min(
+                    seconds * 60 + Long.parseLong(part),
+                    VoiceSender.MAX_SEEK_SECONDS + 1
+                );
+            }
+        } catch (NumberFormatException e) {
+            reply.sendPrivately("❌ Please give a position like 1:30!", null);
+            return;
+        }
+
+        // Wait for the sender to say whether or not it can jump there
+        if (!reply.commit()) {
+            return;
+        }
+        boolean seeking;
+        try {
+            seeking = ((VoiceSender) handler)
+                .seek(seconds)
+                .get(SEEK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            seeking = false;
+        } catch (InterruptedException e) {
+            // Timed out, but the sender may still take up the seek
+            reply.send("⌛ That took too long, the jump may still happen in a moment!");
+            return;
+        }
+        if (!seeking) {
+            reply.send("❌ Can't jump there, nothing is playing or the tune is not that long!");
+            return;
+        }
+        reply.sendFormat("⏩ Jumping to %d:%02d!", seconds / 60, seconds % 60);
+    }
+
+    /**
+     * Tune in to the radio station
+     *
+     * @param ev the event that prompted this command
+     * @param reply the answer to the event
+     */
+    private void tuneIn(IReplyCallback ev, Reply reply) {
+        // Find voice channel, bailing out if it does not exist
+        Member member = ev.getMember();
+        GuildVoiceState voiceState = member.getVoiceState();
+        AudioChannel voiceChannel = voiceState.getChannel();
+        if (voiceChannel == null) {
+            reply.send("❌ You are not in a voice channel!");
+            return;
+        }
+
+        // Swap whatever we were playing for a station listener
+        if (!reply.commit()) {
+            return;
+        }
+        AudioManager audioManager = voiceChannel.getGuild().getAudioManager();
+        if (!(audioManager.getSendingHandler() instanceof Station.Listener)) {
+            closeHandler(audioManager);
+            audioManager.setSendingHandler(this.station.subscribe());
+        }
+
+        // Connect to voice
+        audioManager.openAudioConnection(voiceChannel);
+
+        reply.sendFormat(
+            "📻 Tuned in to **%s**, now playing **%s**!",
+            this.station.name(),
+            this.station.nowPlaying()
+        );
     }
 
     /**
      * Disconnect from voice and clean up
      *
      * @param ev the event that prompted this command
+     * @param reply the answer to the event
      */
-    private void leave(IReplyCallback ev) {
+    private void leave(IReplyCallback ev, Reply reply) {
         // Find voice channel, bailing out if it does not exist
         Member member = ev.getMember();
         GuildVoiceState voiceState = member.getVoiceState();
         AudioChannel voiceChannel = voiceState.getChannel();
         if (voiceChannel == null) {
-            ev.reply("❌ You are not in a voice channel!").queue();
+            reply.send("❌ You are not in a voice channel!");
             return;
         }
 
@@ -243,18 +791,67 @@ public class Bot extends ListenerAdapter {
         AudioManager audioManager = guild.getAudioManager();
         AudioChannel connectedChannel = audioManager.getConnectedChannel();
         if (connectedChannel == null) {
-            ev.reply("❌ I am not in a voice channel!").queue();
+            reply.send("❌ I am not in a voice channel!");
             return;
         }
         if (!connectedChannel.equals(voiceChannel)) {
-            ev.reply("❌ Please join the same voice channel as me!").queue();
+            reply.send("❌ Please join the same voice channel as me!");
             return;
         }
 
         // Disconnect from voice
+        if (!reply.commit()) {
+            return;
+        }
         audioManager.closeAudioConnection();
 
         // Confirm that the bot left
-        ev.reply("👋 Goodbye!").queue();
+        reply.send("👋 Goodbye!");
+    }
+
+    /**
+     * Get the SID database, if it has finished loading
+     *
+     * @param reply the answer to tell the database is still loading, or null for none
+     *
+     * @return the database, or null if it is still loading
+     */
+    private SidDatabase database(Reply reply) {
+        SidDatabase sidDb = this.sidDb.isDone() && !this.sidDb.isCompletedExceptionally()
+            ? this.sidDb.join()
+            : null;
+        if (sidDb == null && reply != null) {
+            reply.send("🔥 The tune index is still warming up, please try again in a minute!");
+        }
+        return sidDb;
+    }
+
+    /**
+     * Free whatever a guild is currently playing through
+     *
+     * @param audioManager the guild's audio manager
+     */
+    private static void closeHandler(AudioManager audioManager) {
+        Object handler = audioManager.getSendingHandler();
+        if (handler instanceof VoiceSender) {
+            ((VoiceSender) handler).close();
+        } else if (handler instanceof Station.Listener) {
+            ((Station.Listener) handler).close();
+        }
+    }
+
+    /**
+     * Truncate a string to a maximum length, marking it with an ellipsis if cut
+     *
+     * @param text the string to truncate
+     * @param length the maximum length
+     *
+     * @return the possibly truncated string
+     */
+    private static String truncate(String text, int length) {
+        if (text.length() <= length) {
+            return text;
+        }
+        return text.substring(0, length - 1) + "…";
     }
 }
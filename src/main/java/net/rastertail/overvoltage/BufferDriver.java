@@ -1,44 +1,125 @@
 package net.rastertail.overvoltage;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import libsidplay.common.CPUClock;
 import libsidplay.common.EventScheduler;
 import libsidplay.config.IAudioSection;
 import sidplay.audio.AudioDriver;
 
-/** A JSIDPlay2 audio driver that writes to a ring buffer of audio buffers */
+/**
+ * A JSIDPlay2 audio driver that writes to a ring buffer of audio buffers
+ *
+ * The driver can optionally encode each buffer to Opus as it is written, so encoding
+ * happens on the render thread rather than on JDA's audio send thread.
+ *
+ * The ring is single-producer/single-consumer: the render thread writes and the
+ * audio send thread reads. A buffer handed out by {@link #read()} stays untouched
+ * until the next call to {@link #read()}, so one slot of the ring is always
+ * reserved for the consumer.
+ */
 public class BufferDriver implements AudioDriver {
+    /** A sequence counter padded out to its own cache line */
+    private static final class Sequence {
+        /** Padding before the value */
+        long p1, p2, p3, p4, p5, p6, p7;
+
+        /** The current sequence number */
+        volatile long value;
+
+        /** Padding after the value */
+        long p9, p10, p11, p12, p13, p14, p15;
+    }
+
+    /** Handle for release stores to sequence counters */
+    private static final VarHandle SEQUENCE_VALUE;
+
+    static {
+        try {
+            SEQUENCE_VALUE = MethodHandles.lookup()
+                .findVarHandle(Sequence.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Frames handed out as silence because the ring was empty */
+    private static final Metrics.Counter UNDERRUNS = Metrics.counter(
+        "overvoltage_driver_underruns_total",
+        "Audio frames sent as silence because rendering fell behind"
+    );
+
+    /** Frames dropped because the ring was full */
+    private static final Metrics.Counter OVERRUNS = Metrics.counter(
+        "overvoltage_driver_overruns_total",
+        "Audio frames dropped because the driver ring was full"
+    );
+
     /** Length of the internal driver buffer in bytes */
     private int bufferLength;
 
     /** Internal driver buffer */
     private ByteBuffer buffer;
 
+    /** A view over the whole internal driver buffer, regardless of its position */
+    private ByteBuffer mixView;
+
+    /** Encoder for ring buffers, or null to keep raw PCM */
+    private OpusEncoder encoder;
+
+    /** Whether or not to encode ring buffers to Opus */
+    private boolean encode;
+
+    /** Length of the data in each ring buffer slot */
+    private int[] lengths;
+
     /** Ring buffer of audio buffers */
     private byte[][] bufferRing;
 
-    /** Ring buffer read pointer */
-    private AtomicInteger readPtr;
+    /** Reusable read views over each ring buffer slot */
+    private ByteBuffer[] bufferViews;
+
+    /** A silent buffer handed out on underrun */
+    private ByteBuffer silence;
+
+    /** Number of buffers written to the ring */
+    private final Sequence writeSeq = new Sequence();
+
+    /** Number of buffers read from the ring */
+    private final Sequence readSeq = new Sequence();
+
+    /** Producer-side cache of the read sequence */
+    private long cachedReadSeq;
+
+    /** Number of buffers produced by the mixer, including dropped ones */
+    private long produced;
+
+    /** Whether or not this driver has been closed */
+    private boolean closed;
 
-    /** Ring buffer write pointer */
-    private AtomicInteger writePtr;
+    /** Whether or not to drop written buffers without encoding them */
+    private boolean muted;
 
-    /** How many new buffers are present? */
-    private AtomicInteger availLength;
+    /** The guild this driver's audio is for, for flight recorder events */
+    private volatile String guild;
+
+    /** HVSC path of the tune playing, for flight recorder events */
+    private volatile String tune;
 
     /**
      * Construct a new driver
      *
      * @param ringSize the size of the internal ring buffer
+     * @param encode whether or not to encode buffers to Opus as they are written
      */
-    public BufferDriver(int ringSize) {
+    public BufferDriver(int ringSize, boolean encode) {
         this.bufferRing = new byte[ringSize][];
-        this.readPtr = new AtomicInteger(0);
-        this.writePtr = new AtomicInteger(0);
-        this.availLength = new AtomicInteger(0);
+        this.bufferViews = new ByteBuffer[ringSize];
+        this.lengths = new int[ringSize];
+        this.encode = encode;
     }
 
     /**
@@ -63,20 +144,44 @@ public class BufferDriver implements AudioDriver {
         this.bufferLength = bufferFrames * Short.BYTES * channels;
         this.buffer = ByteBuffer.allocate(this.bufferLength)
             .order(ByteOrder.BIG_ENDIAN);
+        this.mixView = ByteBuffer.wrap(this.buffer.array())
+            .order(ByteOrder.BIG_ENDIAN);
 
-        // Initialize output buffers
+        // Initialize output buffers and their views
+        int slotLength = this.bufferLength;
+        if (this.encode) {
+            this.encoder = new OpusEncoder();
+            slotLength = OpusEncoder.MAX_PACKET_BYTES;
+        }
         for (int i = 0; i < this.bufferRing.length; i++) {
-            this.bufferRing[i] = new byte[this.bufferLength];
+            this.bufferRing[i] = new byte[slotLength];
+            this.bufferViews[i] = ByteBuffer.wrap(this.bufferRing[i])
+                .order(ByteOrder.BIG_ENDIAN);
+            this.lengths[i] = this.bufferLength;
+        }
+
+        // Initialize the underrun buffer
+        if (this.encode) {
+            this.silence = ByteBuffer.wrap(OpusEncoder.SILENCE);
+        } else {
+            this.silence = ByteBuffer.allocate(this.bufferLength)
+                .order(ByteOrder.BIG_ENDIAN);
         }
     }
 
     /**
-     * Close this audio driver
+     * Close this audio driver, freeing its encoder
      *
-     * Does not actually do anything
+     * Buffers written afterwards are dropped. Must only be called from the render thread.
      */
     @Override
-    public void close() {}
+    public void close() {
+        this.closed = true;
+        if (this.encoder != null) {
+            this.encoder.close();
+            this.encoder = null;
+        }
+    }
 
     /** Get if this driver is recording */
     @Override
@@ -86,19 +191,68 @@ public class BufferDriver implements AudioDriver {
 
     /**
      * Write the internal audio buffer out to the driver's ring buffer
+     *
+     * Drops the buffer if the ring is full. Must only be called from the render thread.
      */
     @Override
     public void write() {
-        // Atomically update the write pointer
-        int ptr = this.writePtr.getAndUpdate(p -> (p + 1) % this.bufferRing.length);
+        this.produced++;
+        if (this.closed || this.muted) {
+            return;
+        }
+        long seq = this.writeSeq.value;
+        FlightEvents.DriverWrite event = FlightEvents.beginDriverWrite();
+
+        // Check for free space, only touching the consumer's counter when needed
+        if (seq - this.cachedReadSeq >= this.capacity()) {
+            this.cachedReadSeq = this.readSeq.value;
+            if (seq - this.cachedReadSeq >= this.capacity()) {
+                OVERRUNS.inc();
+                this.commit(event, 0, true);
+                return;
+            }
+        }
+
+        // Encode or copy internal buffer into current write buffer
+        int slot = (int) (seq % this.bufferRing.length);
+        if (this.encoder != null) {
+            this.bufferViews[slot].clear();
+            this.lengths[slot] = this.encoder.encode(this.mixView, this.bufferViews[slot]);
+        } else {
+            System.arraycopy(
+                this.buffer.array(),
+                this.buffer.arrayOffset(),
+                this.bufferRing[slot],
+                0,
+                this.bufferLength
+            );
+        }
+
+        // Publish the written buffer
+        SEQUENCE_VALUE.setRelease(this.writeSeq, seq + 1);
+        this.commit(event, this.encoder != null ? this.lengths[slot] : this.bufferLength, false);
+    }
 
-        // Copy internal buffer into current write buffer
-        for (int i = 0; i < this.bufferLength; i++) {
-            this.bufferRing[ptr][i] = this.buffer.get(i);
+    /**
+     * Finish a write's flight recorder event
+     *
+     * @param event the event to finish, or null if not recording
+     * @param bytes the size of the stored frame
+     * @param dropped whether or not the frame was dropped
+     */
+    private void commit(FlightEvents.DriverWrite event, int bytes, boolean dropped) {
+        if (event == null) {
+            return;
         }
 
-        // Update available buffer length
-        this.availLength.getAndIncrement();
+        event.end();
+        if (event.shouldCommit()) {
+            event.guild = this.guild;
+            event.tune = this.tune;
+            event.bytes = bytes;
+            event.dropped = dropped;
+            event.commit();
+        }
     }
 
     /** Get the internal audio buffer */
@@ -107,26 +261,127 @@ public class BufferDriver implements AudioDriver {
         return this.buffer;
     }
 
-    /** Read out a buffer from the driver's ring buffer */
-    public byte[] read() {
-        // Atomically update the read pointer
-        int ptr = this.readPtr.getAndUpdate(p -> (p + 1) % this.bufferRing.length);
+    /**
+     * Read out a buffer from the driver's ring buffer
+     *
+     * The returned view is reused, and remains valid until the next call to this method.
+     * Must only be called from a single consumer thread.
+     *
+     * Never blocks; if the render side has fallen behind, silence is returned instead.
+     *
+     * @return the next buffer or packet, or silence if none is available
+     */
+    public ByteBuffer read() {
+        FlightEvents.DriverRead event = FlightEvents.beginDriverRead();
+        long seq = this.readSeq.value;
+        if (seq >= this.writeSeq.value) {
+            UNDERRUNS.inc();
+            FlightEvents.Underrun underrun = FlightEvents.underrun();
+            if (underrun != null) {
+                underrun.guild = this.guild;
+                underrun.tune = this.tune;
+                underrun.commit();
+            }
+            this.silence.clear();
+            return this.silence;
+        }
 
-        byte[] buf = this.bufferRing[ptr];
+        // Rewind the view over the current read buffer
+        int slot = (int) (seq % this.bufferRing.length);
+        ByteBuffer view = this.bufferViews[slot];
+        view.clear();
+        view.limit(this.lengths[slot]);
+
+        // Advance past this buffer, releasing the one handed out previously
+        SEQUENCE_VALUE.setRelease(this.readSeq, seq + 1);
+
+        if (event == null) {
+            return view;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.guild = this.guild;
+            event.tune = this.tune;
+            event.available = this.available();
+            event.commit();
+        }
+        return view;
+    }
 
-        // Update available buffer length
-        this.availLength.getAndDecrement();
+    /**
+     * Set whether or not to drop written buffers without encoding or storing them
+     *
+     * Must only be called from the render thread.
+     *
+     * @param muted whether or not to drop written buffers
+     */
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
 
-        return buf;
+    /**
+     * Drop all buffered audio
+     *
+     * Must only be called from the render thread while nothing is reading.
+     */
+    public void clear() {
+        SEQUENCE_VALUE.setRelease(this.readSeq, this.writeSeq.value);
+    }
+
+    /**
+     * Set what this driver's audio is for, as shown in flight recorder events
+     *
+     * @param guild the guild the audio is for, or null if not for a guild
+     * @param tune the HVSC path of the tune playing
+     */
+    public void label(String guild, String tune) {
+        this.guild = guild;
+        this.tune = tune;
+    }
+
+    /** Get the HVSC path of the tune playing, as set with {@link #label} */
+    public String tune() {
+        return this.tune;
+    }
+
+    /** Get if the buffers handed out by {@link #read()} are Opus packets */
+    public boolean isOpus() {
+        return this.encode;
+    }
+
+    /**
+     * Get how many buffers the mixer has produced so far
+     *
+     * A plain counter, cheap enough to poll between emulation events. Only meaningful on
+     * the render thread.
+     */
+    public long produced() {
+        return this.produced;
+    }
+
+    /** Get how many buffers can be written before the ring is full */
+    public int free() {
+        return Math.max(this.capacity() - this.available(), 0);
+    }
+
+    /** Get how many buffers are available to be read */
+    public int available() {
+        return (int) (this.writeSeq.value - this.readSeq.value);
     }
 
     /** Get if the driver's ring buffer has any new data available */
     public boolean hasData() {
-        return this.availLength.get() > 0;
+        return this.available() > 0;
     }
 
     /** Get if the driver's ring buffer is full or not */
     public boolean full() {
-        return this.availLength.get() >= this.bufferRing.length;
+        return this.available() >= this.capacity();
+    }
+
+    /** Get how many buffers the ring can hold, excluding the one held by the consumer */
+    private int capacity() {
+        return this.bufferRing.length - 1;
     }
 }
@@ -0,0 +1,308 @@
+package net.rastertail.overvoltage;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs bot commands off JDA's event thread, one at a time per guild
+ *
+ * Commands for the same guild run in the order they were submitted, so e.g. a skip
+ * never overtakes the play it was meant for, while different guilds run in parallel
+ * on a fixed pool of threads. Commands are refused outright once too many are waiting,
+ * and each one is given a deadline after which its timeout handler runs instead and the
+ * command, if already running, is interrupted.
+ */
+public class CommandQueue implements AutoCloseable {
+    /** Logger for this class */
+    private final Logger LOG = LoggerFactory.getLogger(CommandQueue.class);
+
+    /** Commands refused because too many were waiting */
+    private static final Metrics.Counter REJECTED = Metrics.counter(
+        "overvoltage_commands_rejected_total",
+        "Commands refused because too many were already waiting"
+    );
+
+    /** Commands which missed their deadline */
+    private static final Metrics.Counter TIMED_OUT = Metrics.counter(
+        "overvoltage_commands_timed_out_total",
+        "Commands which did not finish before their deadline"
+    );
+
+    /** Time from submitting a command to it finishing */
+    private static final Metrics.Histogram COMMAND_NANOS = Metrics.histogram(
+        "overvoltage_command_seconds",
+        "Time from receiving a command to finishing it, including time spent waiting",
+        1e-9,
+        10_000_000L,
+        50_000_000L,
+        100_000_000L,
+        250_000_000L,
+        500_000_000L,
+        1_000_000_000L,
+        3_000_000_000L,
+        10_000_000_000L
+    );
+
+    /** Maximum number of commands waiting for a single guild */
+    private static final int MAX_GUILD_PENDING = 4;
+
+    /** A command waiting to run */
+    private static class Pending {
+        /** The command itself */
+        final Runnable command;
+
+        /** Run instead of or alongside the command once its deadline passes */
+        final Runnable onTimeout;
+
+        /** When the command was submitted, in {@link System#nanoTime()} time */
+        final long submitted;
+
+        /** Fires the timeout handler once the command's deadline passes */
+        ScheduledFuture<?> timer;
+
+        /** The thread running the command, or null if not running, guarded by this */
+        Thread runner;
+
+        /** Whether or not the timeout handler has run, guarded by this */
+        boolean timedOut;
+
+        /** Whether or not the command has finished running, guarded by this */
+        boolean done;
+
+        /**
+         * Construct a new waiting command
+         *
+         * @param command the command itself
+         * @param onTimeout run once the command's deadline passes
+         */
+        Pending(Runnable command, Runnable onTimeout) {
+            this.command = command;
+            this.onTimeout = onTimeout;
+            this.submitted = System.nanoTime();
+        }
+    }
+
+    /** The commands of a single guild */
+    private static class Lane {
+        /** Commands waiting to run, oldest first */
+        final ArrayDeque<Pending> waiting = new ArrayDeque<Pending>();
+
+        /** Whether or not a thread is currently working through this lane */
+        boolean running;
+
+        /** Whether or not this lane ran empty and was dropped, and must not be used */
+        boolean dropped;
+    }
+
+    /** Threads running commands */
+    private ExecutorService executor;
+
+    /** Thread firing timeout handlers */
+    private ScheduledExecutorService watchdog;
+
+    /** Command lanes by guild ID, dropped whenever they run empty */
+    private ConcurrentHashMap<String, Lane> lanes;
+
+    /** Commands submitted but not yet finished, across all guilds */
+    private AtomicInteger pending;
+
+    /** Maximum number of commands submitted but not yet finished */
+    private int capacity;
+
+    /** How long a command may take, including time spent waiting */
+    private long timeoutNanos;
+
+    /**
+     * Construct a new command queue
+     *
+     * @param threads the number of commands to run at once
+     * @param capacity the maximum number of commands waiting or running across all guilds
+     * @param timeoutSeconds how long a command may take, including time spent waiting
+     */
+    public CommandQueue(int threads, int capacity, long timeoutSeconds) {
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "command-" + threadId.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "command-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.lanes = new ConcurrentHashMap<String, Lane>();
+        this.pending = new AtomicInteger();
+        this.capacity = capacity;
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+
+        Metrics.gauge(
+            "overvoltage_commands_pending",
+            "Commands waiting or running across all guilds",
+            this.pending::get
+        );
+    }
+
+    /**
+     * Queue up a command to run after the guild's earlier commands
+     *
+     * The deadline is watched from the moment the command is accepted, so a command stuck
+     * behind a slow one still times out on time. If the command misses its deadline
+     * while waiting, only the timeout handler runs and the command is skipped once its
+     * turn comes. If it misses it while running, the timeout handler runs and then the command is
+     * interrupted. Commands need not stop when interrupted, so it is still up to the two
+     * of them to agree on who answers.
+     *
+     * @param guild the ID of the guild the command is for
+     * @param command the command to run
+     * @param onTimeout run once the command's deadline passes
+     *
+     * @return whether or not the command was accepted, false if too many are waiting
+     */
+    public boolean submit(String guild, Runnable command, Runnable onTimeout) {
+        // Reserve a slot, refusing the command if none are left
+        if (this.pending.incrementAndGet() > this.capacity) {
+            this.pending.decrementAndGet();
+            REJECTED.inc();
+            return false;
+        }
+
+        // Find the guild's lane, retrying if it is dropped from under us
+        Lane lane;
+        boolean start;
+        while (true) {
+            lane = this.lanes.computeIfAbsent(guild, g -> new Lane());
+            synchronized (lane) {
+                if (lane.dropped) {
+                    continue;
+                }
+                if (lane.waiting.size() >= MAX_GUILD_PENDING) {
+                    this.pending.decrementAndGet();
+                    REJECTED.inc();
+                    return false;
+                }
+
+                Pending next = new Pending(command, onTimeout);
+                next.timer = this.watchdog.schedule(
+                    () -> this.timeout(next),
+                    this.timeoutNanos,
+                    TimeUnit.NANOSECONDS
+                );
+                lane.waiting.add(next);
+                start = !lane.running;
+                lane.running = true;
+                break;
+            }
+        }
+
+        // Start working through the lane if nobody else is
+        if (start) {
+            Lane started = lane;
+            this.executor.execute(() -> this.drain(guild, started));
+        }
+        return true;
+    }
+
+    /**
+     * Run a lane's commands until it is empty, then drop it
+     *
+     * @param guild the ID of the guild the lane belongs to
+     * @param lane the lane to run
+     */
+    private void drain(String guild, Lane lane) {
+        while (true) {
+            Pending next;
+            synchronized (lane) {
+                next = lane.waiting.poll();
+                if (next == null) {
+                    lane.running = false;
+                    lane.dropped = true;
+                    this.lanes.remove(guild, lane);
+                    return;
+                }
+            }
+
+            try {
+                this.run(next);
+            } finally {
+                this.pending.decrementAndGet();
+                COMMAND_NANOS.record(System.nanoTime() - next.submitted);
+            }
+        }
+    }
+
+    /**
+     * Run a single command, unless it already timed out while waiting
+     *
+     * @param next the command to run
+     */
+    private void run(Pending next) {
+        synchronized (next) {
+            if (next.timedOut) {
+                return;
+            }
+            next.runner = Thread.currentThread();
+        }
+
+        try {
+            next.command.run();
+        } catch (Exception e) {
+            LOG.error("Uncaught exception in command: {}", e);
+        } finally {
+            next.timer.cancel(false);
+            synchronized (next) {
+                next.runner = null;
+                next.done = true;
+            }
+
+            // Do not let a late interrupt leak into the next command
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Run a command's timeout handler, then interrupt the command if it is running
+     *
+     * Does nothing if the command finished in time after all.
+     *
+     * @param next the command which missed its deadline
+     */
+    private void timeout(Pending next) {
+        synchronized (next) {
+            if (next.done) {
+                return;
+            }
+            next.timedOut = true;
+        }
+
+        TIMED_OUT.inc();
+        try {
+            next.onTimeout.run();
+        } catch (Exception e) {
+            LOG.warn("Command timeout handler failed: {}", e);
+        }
+
+        synchronized (next) {
+            if (next.runner != null) {
+                next.runner.interrupt();
+            }
+        }
+    }
+
+    /** Stop running commands, abandoning any still waiting */
+    @Override
+    public void close() {
+        this.watchdog.shutdownNow();
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,304 @@
+package net.rastertail.overvoltage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the emulation and audio hot path
+ *
+ * Events carry the guild and tune they were emitted for, so a stutter can be traced
+ * back to individual frames. The bundled overvoltage.jfc profile only keeps events
+ * which took unusually long, which is cheap enough to leave recording in production.
+ *
+ * Hot paths begin their events through the factory methods here, which hand out null
+ * instead of allocating an event while no recording has it enabled.
+ */
+public final class FlightEvents {
+    /** Rendering a batch of frames on an emulator */
+    @Name("overvoltage.Render")
+    @Label("Render")
+    @Category({"Overvoltage", "Emulation"})
+    @StackTrace(false)
+    public static class Render extends Event {
+        /** The guild being rendered for */
+        @Label("Guild")
+        public String guild;
+
+        /** HVSC path of the tune being rendered */
+        @Label("Tune")
+        public String tune;
+
+        /** Audio frames produced */
+        @Label("Frames")
+        public long frames;
+
+        /** Emulated CPU cycles */
+        @Label("Cycles")
+        public long cycles;
+    }
+
+    /** Resetting an emulator and loading a tune into it */
+    @Name("overvoltage.Play")
+    @Label("Play")
+    @Category({"Overvoltage", "Emulation"})
+    @StackTrace(false)
+    public static class Play extends Event {
+        /** The guild the tune is played for */
+        @Label("Guild")
+        public String guild;
+
+        /** HVSC path of the tune */
+        @Label("Tune")
+        public String tune;
+
+        /** Number of SID chips the tune uses */
+        @Label("SID Chips")
+        public int sids;
+    }
+
+    /** Encoding or copying a mixed frame into a driver's ring */
+    @Name("overvoltage.DriverWrite")
+    @Label("Driver Write")
+    @Category({"Overvoltage", "Audio"})
+    @StackTrace(false)
+    public static class DriverWrite extends Event {
+        /** The guild the frame is for */
+        @Label("Guild")
+        public String guild;
+
+        /** HVSC path of the tune playing */
+        @Label("Tune")
+        public String tune;
+
+        /** Size of the stored frame */
+        @Label("Size")
+        @DataAmount
+        public int bytes;
+
+        /** Whether or not the frame was dropped because the ring was full */
+        @Label("Dropped")
+        public boolean dropped;
+    }
+
+    /** Reading a frame out of a driver's ring */
+    @Name("overvoltage.DriverRead")
+    @Label("Driver Read")
+    @Category({"Overvoltage", "Audio"})
+    @StackTrace(false)
+    public static class DriverRead extends Event {
+        /** The guild the frame is for */
+        @Label("Guild")
+        public String guild;
+
+        /** HVSC path of the tune playing */
+        @Label("Tune")
+        public String tune;
+
+        /** Frames left in the ring after reading */
+        @Label("Available")
+        public int available;
+    }
+
+    /** Silence handed out because rendering fell behind */
+    @Name("overvoltage.Underrun")
+    @Label("Underrun")
+    @Category({"Overvoltage", "Audio"})
+    @Description("A frame of silence was sent because the driver ring was empty")
+    @StackTrace(false)
+    public static class Underrun extends Event {
+        /** The guild which heard silence */
+        @Label("Guild")
+        public String guild;
+
+        /** HVSC path of the tune playing */
+        @Label("Tune")
+        public String tune;
+    }
+
+    /** Handing a frame to JDA's audio send thread */
+    @Name("overvoltage.Provide")
+    @Label("Provide Audio")
+    @Category({"Overvoltage", "Audio"})
+    @StackTrace(false)
+    public static class Provide extends Event {
+        /** The guild the frame is for */
+        @Label("Guild")
+        public String guild;
+
+        /** HVSC path of the tune playing live, or null if none */
+        @Label("Tune")
+        public String tune;
+
+        /** Where the frame came from: live, cache or none */
+        @Label("Source")
+        public String source;
+
+        /** Size of the frame */
+        @Label("Size")
+        @DataAmount
+        public int bytes;
+    }
+
+    /** Settings of the render event */
+    private static final EventType RENDER = EventType.getEventType(Render.class);
+
+    /** Settings of the play event */
+    private static final EventType PLAY = EventType.getEventType(Play.class);
+
+    /** Settings of the driver write event */
+    private static final EventType DRIVER_WRITE = EventType.getEventType(DriverWrite.class);
+
+    /** Settings of the driver read event */
+    private static final EventType DRIVER_READ = EventType.getEventType(DriverRead.class);
+
+    /** Settings of the underrun event */
+    private static final EventType UNDERRUN = EventType.getEventType(Underrun.class);
+
+    /** Settings of the provide event */
+    private static final EventType PROVIDE = EventType.getEventType(Provide.class);
+
+    /** Name of the recording started by {@link #startRecording(long, Duration)} */
+    public static final String RECORDING_NAME = "overvoltage";
+
+    /** Classpath location of the bundled profile */
+    private static final String PROFILE = "/overvoltage.jfc";
+
+    /** Not instantiable */
+    private FlightEvents() {}
+
+    /**
+     * Begin timing a render call
+     *
+     * @return the begun event, or null if no recording has it enabled
+     */
+    public static Render beginRender() {
+        if (!RENDER.isEnabled()) {
+            return null;
+        }
+        Render event = new Render();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begin timing loading a tune
+     *
+     * @return the begun event, or null if no recording has it enabled
+     */
+    public static Play beginPlay() {
+        if (!PLAY.isEnabled()) {
+            return null;
+        }
+        Play event = new Play();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begin timing a driver write
+     *
+     * @return the begun event, or null if no recording has it enabled
+     */
+    public static DriverWrite beginDriverWrite() {
+        if (!DRIVER_WRITE.isEnabled()) {
+            return null;
+        }
+        DriverWrite event = new DriverWrite();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begin timing a driver read
+     *
+     * @return the begun event, or null if no recording has it enabled
+     */
+    public static DriverRead beginDriverRead() {
+        if (!DRIVER_READ.isEnabled()) {
+            return null;
+        }
+        DriverRead event = new DriverRead();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Create an underrun event
+     *
+     * @return the event, or null if no recording has it enabled
+     */
+    public static Underrun underrun() {
+        return UNDERRUN.isEnabled() ? new Underrun() : null;
+    }
+
+    /**
+     * Begin timing handing out a frame
+     *
+     * @return the begun event, or null if no recording has it enabled
+     */
+    public static Provide beginProvide() {
+        if (!PROVIDE.isEnabled()) {
+            return null;
+        }
+        Provide event = new Provide();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Start an always-on recording, kept in a bounded on-disk buffer until dumped
+     *
+     * JDK events use the JDK's default profile and our events use the bundled one. The
+     * recording can be dumped after an incident with
+     * {@code jcmd <pid> JFR.dump name=overvoltage filename=<file>}.
+     *
+     * @param maxBytes how much recorded data to keep
+     * @param maxAge how long to keep recorded data for
+     *
+     * @return the running recording
+     *
+     * @throws IOException if the bundled profile cannot be read
+     * @throws ParseException if the bundled profile is malformed
+     */
+    public static Recording startRecording(
+        long maxBytes,
+        Duration maxAge
+    ) throws IOException, ParseException {
+        Map<String, String> settings = new HashMap<String, String>(
+            Configuration.getConfiguration("default").getSettings()
+        );
+        try (InputStream in = FlightEvents.class.getResourceAsStream(PROFILE)) {
+            if (in == null) {
+                throw new IOException("Missing bundled profile " + PROFILE);
+            }
+            settings.putAll(Configuration.create(
+                new InputStreamReader(in, StandardCharsets.UTF_8)
+            ).getSettings());
+        }
+
+        Recording recording = new Recording(settings);
+        recording.setName(RECORDING_NAME);
+        recording.setToDisk(true);
+        recording.setMaxSize(maxBytes);
+        recording.setMaxAge(maxAge);
+        recording.start();
+        return recording;
+    }
+}
@@ -0,0 +1,141 @@
+package net.rastertail.overvoltage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import libsidplay.sidtune.SidTune;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Headless rendering to get the emulator's hot paths compiled before anyone listens
+ *
+ * A fresh JVM runs the emulator interpreted or with lightly optimized code for a while,
+ * which is too slow for real time and makes the first tunes played stutter. Rendering a
+ * few seconds each of a single, dual and triple SID tune through the same player and
+ * Opus encoder voice senders use gets those paths fully compiled up front.
+ */
+public final class JitWarmup {
+    /** Logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger(JitWarmup.class);
+
+    /** Number of audio buffers per second of emulated time */
+    private static final int FRAMES_PER_SECOND = 50;
+
+    /** Matches the HVSC's file names for multi-SID tunes */
+    private static final Pattern MULTI_SID = Pattern.compile(
+        ".*_[23]SID\\.sid$",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    /** Not instantiable */
+    private JitWarmup() {}
+
+    /**
+     * Start warming up on a background thread
+     *
+     * @param hvsc the HVSC root to take tunes from
+     * @param seconds how many seconds of each tune to render
+     */
+    public static void start(Path hvsc, int seconds) {
+        Thread t = new Thread(() -> run(hvsc, seconds), "jit-warmup");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Render a few seconds of one tune per SID chip count
+     *
+     * Tunes are the first of each kind in path order, so every start warms up with the
+     * same tunes. Failures are logged and otherwise ignored, since warming up is only
+     * ever an optimization.
+     *
+     * @param hvsc the HVSC root to take tunes from
+     * @param seconds how many seconds of each tune to render
+     */
+    public static void run(Path hvsc, int seconds) {
+        long start = System.nanoTime();
+        int tunes = 0;
+
+        try (SidPlayer player = new SidPlayer(VoiceSender.createConfig())) {
+            player.setGuild("warm-up");
+            Path[] paths = findTunes(hvsc);
+            for (int i = 0; i < paths.length; i++) {
+                Path path = paths[i];
+                if (path == null) {
+                    LOG.debug("No {}SID tune to warm up with", i + 1);
+                    continue;
+                }
+
+                // Play the tune's default song, draining audio as a voice sender would
+                SidTune tune = SidTune.load(path.toFile());
+                tune.getInfo().setSelectedSong(tune.getInfo().getStartSong());
+                tune.prepare();
+                player.play(tune, hvsc.relativize(path).toString());
+
+                int frames = 0;
+                while (frames < seconds * FRAMES_PER_SECOND) {
+                    int count = Math.min(
+                        player.driver().free(),
+                        seconds * FRAMES_PER_SECOND - frames
+                    );
+                    player.render(count);
+                    frames += count;
+                    while (player.driver().hasData()) {
+                        player.driver().read();
+                    }
+                }
+
+                tunes++;
+            }
+            player.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            LOG.warn("JIT warm-up failed: {}", e);
+            return;
+        }
+
+        LOG.info(
+            "Warmed up on {} tunes in {} ms",
+            tunes,
+            (System.nanoTime() - start) / 1_000_000
+        );
+    }
+
+    /**
+     * Find the first tune in path order for each SID chip count
+     *
+     * Chip counts are taken from the HVSC's file naming rather than the tune headers, so
+     * that only the chosen tunes need to be loaded.
+     *
+     * @param hvsc the HVSC root
+     *
+     * @return the path of a single, dual and triple SID tune, or null where there is none
+     *
+     * @throws IOException if walking the HVSC fails
+     */
+    private static Path[] findTunes(Path hvsc) throws IOException {
+        Path[] found = new Path[3];
+        try (Stream<Path> walk = Files.walk(hvsc)) {
+            walk
+                .filter(p -> p.getFileName().toString().toLowerCase().endsWith(".sid"))
+                .sorted()
+                .forEachOrdered(p -> {
+                    String name = p.getFileName().toString();
+                    int sids = MULTI_SID.matcher(name).matches()
+                        ? name.charAt(name.length() - 8) - '0'
+                        : 1;
+                    if (found[sids - 1] == null && Files.isRegularFile(p)) {
+                        found[sids - 1] = p;
+                    }
+                });
+        }
+        return found;
+    }
+}
@@ -0,0 +1,206 @@
+package net.rastertail.overvoltage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A record of the files that went into the search index, used to detect changes */
+public class Manifest {
+    /** What was known about a single file when it was indexed */
+    public static class Entry {
+        /** File size in bytes */
+        public final long size;
+
+        /** Last modification time in milliseconds since the epoch */
+        public final long mtime;
+
+        /** Hex encoded MD5 digest of the file contents */
+        public final String md5;
+
+        /**
+         * Construct a new manifest entry
+         *
+         * @param size the file size in bytes
+         * @param mtime the last modification time in milliseconds
+         * @param md5 the hex encoded MD5 digest of the file
+         */
+        public Entry(long size, long mtime, String md5) {
+            this.size = size;
+            this.mtime = mtime;
+            this.md5 = md5;
+        }
+
+        /**
+         * Create an entry describing a file on disk, hashing its contents
+         *
+         * @param path the file to describe
+         * @param attrs the file's attributes
+         *
+         * @return the new entry
+         *
+         * @throws IOException if the file cannot be read
+         */
+        public static Entry of(Path path, BasicFileAttributes attrs) throws IOException {
+            return new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), md5(path));
+        }
+
+        /**
+         * Check whether a file still looks the same as when this entry was made
+         *
+         * Only compares size and modification time, so it is cheap but may report false
+         * changes; compare digests to be sure.
+         *
+         * @param attrs the file's current attributes
+         *
+         * @return whether or not the file appears unchanged
+         */
+        public boolean matches(BasicFileAttributes attrs) {
+            return this.size == attrs.size() && this.mtime == attrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    /** Logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger(Manifest.class);
+
+    /** Field separator in the manifest file */
+    private static final String SEPARATOR = "\t";
+
+    /** Manifest entries keyed by HVSC path */
+    private ConcurrentHashMap<String, Entry> entries;
+
+    /** Construct a new empty manifest */
+    public Manifest() {
+        this.entries = new ConcurrentHashMap<String, Entry>();
+    }
+
+    /**
+     * Load a manifest from disk
+     *
+     * @param file the manifest file
+     *
+     * @return the loaded manifest, or null if the file does not exist or is malformed
+     *
+     * @throws IOException if the manifest cannot be read
+     */
+    public static Manifest load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        Manifest manifest = new Manifest();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR);
+                if (parts.length != 4) {
+                    LOG.warn("Malformed index manifest line, ignoring manifest: {}", line);
+                    return null;
+                }
+
+                manifest.put(parts[0], new Entry(
+                    Long.parseLong(parts[1]),
+                    Long.parseLong(parts[2]),
+                    parts[3]
+                ));
+            }
+        } catch (NumberFormatException e) {
+            LOG.warn("Malformed index manifest, ignoring it: {}", e);
+            return null;
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Atomically write this manifest to disk
+     *
+     * @param file the manifest file
+     *
+     * @throws IOException if the manifest cannot be written
+     */
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+                writer.write(e.getKey());
+                writer.write(SEPARATOR);
+                writer.write(Long.toString(e.getValue().size));
+                writer.write(SEPARATOR);
+                writer.write(Long.toString(e.getValue().mtime));
+                writer.write(SEPARATOR);
+                writer.write(e.getValue().md5);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the entry for a path
+     *
+     * @param path the HVSC path
+     *
+     * @return the entry, or null if the path is not in the manifest
+     */
+    public Entry get(String path) {
+        return this.entries.get(path);
+    }
+
+    /**
+     * Record an entry for a path
+     *
+     * @param path the HVSC path
+     * @param entry the entry to record
+     */
+    public void put(String path, Entry entry) {
+        this.entries.put(path, entry);
+    }
+
+    /** Get all paths in this manifest */
+    public Set<String> paths() {
+        return this.entries.keySet();
+    }
+
+    /** Get the number of entries in this manifest */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Compute the hex encoded MD5 digest of a file
+     *
+     * @param path the file to hash
+     *
+     * @return the digest
+     *
+     * @throws IOException if the file cannot be read
+     */
+    private static String md5(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+
+        // SID files are small enough to hash in one go
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(Files.readAllBytes(path))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
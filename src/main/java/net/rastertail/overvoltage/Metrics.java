@@ -0,0 +1,483 @@
+package net.rastertail.overvoltage;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A process-wide registry of counters, gauges and histograms
+ *
+ * Classes declare their metrics as static fields, so recording never needs a registry
+ * handed around. Recording only touches preallocated adders and never allocates, so it
+ * is safe on the render and send threads. Metrics can be read out in the Prometheus
+ * text format, see {@link MetricsServer}, and through JMX.
+ */
+public final class Metrics {
+    /** A single named metric */
+    private abstract static class Metric {
+        /** Name of the metric */
+        final String name;
+
+        /** Description of the metric */
+        final String help;
+
+        /**
+         * Construct a new metric
+         *
+         * @param name the name of the metric
+         * @param help a description of the metric
+         */
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        /**
+         * Write the metric in the Prometheus text format
+         *
+         * @param out the buffer to write to
+         */
+        abstract void write(StringBuilder out);
+
+        /**
+         * Add the metric's current values to a map, keyed by JMX attribute name
+         *
+         * @param out the map to add to
+         */
+        abstract void sample(Map<String, Number> out);
+
+        /**
+         * Write the metric's header lines
+         *
+         * @param out the buffer to write to
+         * @param type the Prometheus metric type
+         */
+        void writeHeader(StringBuilder out, String type) {
+            out.append("# HELP ").append(this.name).append(' ').append(this.help).append('\n');
+            out.append("# TYPE ").append(this.name).append(' ').append(type).append('\n');
+        }
+    }
+
+    /** A monotonically increasing count */
+    public static final class Counter extends Metric {
+        /** The count */
+        private final LongAdder value = new LongAdder();
+
+        /**
+         * Construct a new counter
+         *
+         * @param name the name of the counter
+         * @param help a description of the counter
+         */
+        private Counter(String name, String help) {
+            super(name, help);
+        }
+
+        /** Count one event */
+        public void inc() {
+            this.value.increment();
+        }
+
+        /**
+         * Count a number of events
+         *
+         * @param count the number of events
+         */
+        public void add(long count) {
+            this.value.add(count);
+        }
+
+        /** Get the count */
+        public long get() {
+            return this.value.sum();
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            this.writeHeader(out, "counter");
+            out.append(this.name).append(' ').append(this.get()).append('\n');
+        }
+
+        @Override
+        void sample(Map<String, Number> out) {
+            out.put(this.name, this.get());
+        }
+    }
+
+    /** A value which can go up and down */
+    public static final class Gauge extends Metric {
+        /** The value */
+        private final AtomicLong value = new AtomicLong();
+
+        /**
+         * Construct a new gauge
+         *
+         * @param name the name of the gauge
+         * @param help a description of the gauge
+         */
+        private Gauge(String name, String help) {
+            super(name, help);
+        }
+
+        /**
+         * Add to the value
+         *
+         * @param delta the amount to add, which may be negative
+         */
+        public void add(long delta) {
+            this.value.addAndGet(delta);
+        }
+
+        /**
+         * Set the value
+         *
+         * @param value the new value
+         */
+        public void set(long value) {
+            this.value.set(value);
+        }
+
+        /** Get the value */
+        public long get() {
+            return this.value.get();
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            this.writeHeader(out, "gauge");
+            out.append(this.name).append(' ').append(this.get()).append('\n');
+        }
+
+        @Override
+        void sample(Map<String, Number> out) {
+            out.put(this.name, this.get());
+        }
+    }
+
+    /** A counter or gauge whose value is read from elsewhere on demand */
+    private static final class Callback extends Metric {
+        /** The Prometheus metric type */
+        private final String type;
+
+        /** Reads the value */
+        private final LongSupplier value;
+
+        /**
+         * Construct a new callback metric
+         *
+         * @param name the name of the metric
+         * @param help a description of the metric
+         * @param type the Prometheus metric type
+         * @param value reads the value
+         */
+        private Callback(String name, String help, String type, LongSupplier value) {
+            super(name, help);
+            this.type = type;
+            this.value = value;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            this.writeHeader(out, this.type);
+            out.append(this.name).append(' ').append(this.value.getAsLong()).append('\n');
+        }
+
+        @Override
+        void sample(Map<String, Number> out) {
+            out.put(this.name, this.value.getAsLong());
+        }
+    }
+
+    /** A distribution of values over fixed buckets */
+    public static final class Histogram extends Metric {
+        /** Inclusive upper bound of each bucket, in recorded units */
+        private final long[] bounds;
+
+        /** Upper bound of each bucket as exported, plus one for values above every bound */
+        private final String[] labels;
+
+        /** Number of values in each bucket, plus one for values above every bound */
+        private final LongAdder[] counts;
+
+        /** Sum of all recorded values */
+        private final LongAdder sum = new LongAdder();
+
+        /** Factor converting recorded units to exported units */
+        private final double scale;
+
+        /**
+         * Construct a new histogram
+         *
+         * @param name the name of the histogram
+         * @param help a description of the histogram
+         * @param scale the factor converting recorded units to exported units
+         * @param bounds the inclusive upper bound of each bucket, in ascending order
+         */
+        private Histogram(String name, String help, double scale, long[] bounds) {
+            super(name, help);
+            this.scale = scale;
+            this.bounds = bounds.clone();
+            this.counts = new LongAdder[bounds.length + 1];
+            this.labels = new String[bounds.length + 1];
+            for (int i = 0; i < this.counts.length; i++) {
+                this.counts[i] = new LongAdder();
+            }
+
+            // Scale bounds exactly, so e.g. nanoseconds export as round seconds
+            for (int i = 0; i < bounds.length; i++) {
+                this.labels[i] = BigDecimal.valueOf(bounds[i])
+                    .multiply(BigDecimal.valueOf(scale))
+                    .stripTrailingZeros()
+                    .toPlainString();
+            }
+            this.labels[bounds.length] = "+Inf";
+        }
+
+        /**
+         * Record a value
+         *
+         * @param value the value, in recorded units
+         */
+        public void record(long value) {
+            int bucket = 0;
+            while (bucket < this.bounds.length && value > this.bounds[bucket]) {
+                bucket++;
+            }
+            this.counts[bucket].increment();
+            this.sum.add(value);
+        }
+
+        /** Get the number of recorded values */
+        public long count() {
+            long count = 0;
+            for (LongAdder c : this.counts) {
+                count += c.sum();
+            }
+            return count;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            this.writeHeader(out, "histogram");
+
+            // Buckets are cumulative in the exposition format
+            long cumulative = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                cumulative += this.counts[i].sum();
+                out.append(this.name).append("_bucket{le=\"").append(this.labels[i]);
+                out.append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(this.name).append("_sum ").append(this.sum.sum() * this.scale).append('\n');
+            out.append(this.name).append("_count ").append(cumulative).append('\n');
+        }
+
+        @Override
+        void sample(Map<String, Number> out) {
+            out.put(this.name + "_sum", this.sum.sum() * this.scale);
+            out.put(this.name + "_count", this.count());
+        }
+    }
+
+    /** Exposes every metric as a read-only JMX attribute */
+    private static final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String name) throws AttributeNotFoundException {
+            Number value = sample().get(name);
+            if (value == null) {
+                throw new AttributeNotFoundException(name);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Number> values = sample();
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (values.containsKey(name)) {
+                    list.add(new Attribute(name, values.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (Map.Entry<String, Number> e : sample().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(
+                    e.getKey(),
+                    e.getValue().getClass().getName(),
+                    e.getKey(),
+                    true,
+                    false,
+                    false
+                ));
+            }
+            return new MBeanInfo(
+                Metrics.class.getName(),
+                "Overvoltage metrics",
+                attributes.toArray(new MBeanAttributeInfo[] {}),
+                null,
+                null,
+                null
+            );
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(action);
+        }
+    }
+
+    /** All registered metrics, by name */
+    private static final ConcurrentSkipListMap<String, Metric> REGISTRY
+        = new ConcurrentSkipListMap<String, Metric>();
+
+    /** Name the metrics are registered under in JMX */
+    private static final String JMX_NAME = "net.rastertail.overvoltage:type=Metrics";
+
+    /** Not instantiable */
+    private Metrics() {}
+
+    /**
+     * Register a new counter
+     *
+     * @param name the name of the counter
+     * @param help a description of the counter
+     *
+     * @return the counter
+     */
+    public static Counter counter(String name, String help) {
+        return register(new Counter(name, help));
+    }
+
+    /**
+     * Register a new gauge
+     *
+     * @param name the name of the gauge
+     * @param help a description of the gauge
+     *
+     * @return the gauge
+     */
+    public static Gauge gauge(String name, String help) {
+        return register(new Gauge(name, help));
+    }
+
+    /**
+     * Register a new histogram
+     *
+     * @param name the name of the histogram
+     * @param help a description of the histogram
+     * @param scale the factor converting recorded units to exported units
+     * @param bounds the inclusive upper bound of each bucket in recorded units, ascending
+     *
+     * @return the histogram
+     */
+    public static Histogram histogram(String name, String help, double scale, long... bounds) {
+        return register(new Histogram(name, help, scale, bounds));
+    }
+
+    /**
+     * Register a counter kept elsewhere, replacing any metric of the same name
+     *
+     * @param name the name of the counter
+     * @param help a description of the counter
+     * @param value reads the count
+     */
+    public static void counter(String name, String help, LongSupplier value) {
+        REGISTRY.put(name, new Callback(name, help, "counter", value));
+    }
+
+    /**
+     * Register a gauge kept elsewhere, replacing any metric of the same name
+     *
+     * @param name the name of the gauge
+     * @param help a description of the gauge
+     * @param value reads the value
+     */
+    public static void gauge(String name, String help, LongSupplier value) {
+        REGISTRY.put(name, new Callback(name, help, "gauge", value));
+    }
+
+    /**
+     * Write every metric in the Prometheus text format
+     *
+     * @return the formatted metrics
+     */
+    public static String prometheus() {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : REGISTRY.values()) {
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Expose every metric through the platform MBean server
+     *
+     * @throws JMException if the metrics cannot be registered
+     */
+    public static void registerJmx() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(JMX_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new MetricsMBean(), name);
+        }
+    }
+
+    /**
+     * Read every metric's current values
+     *
+     * @return the values, keyed by JMX attribute name
+     */
+    private static Map<String, Number> sample() {
+        Map<String, Number> values = new TreeMap<String, Number>();
+        for (Metric metric : REGISTRY.values()) {
+            metric.sample(values);
+        }
+        return values;
+    }
+
+    /**
+     * Add a metric to the registry
+     *
+     * @param metric the metric to add
+     *
+     * @return the metric
+     *
+     * @throws IllegalStateException if a metric of the same name is already registered
+     */
+    private static <T extends Metric> T register(T metric) {
+        if (REGISTRY.putIfAbsent(metric.name, metric) != null) {
+            throw new IllegalStateException("Duplicate metric " + metric.name);
+        }
+        return metric;
+    }
+}
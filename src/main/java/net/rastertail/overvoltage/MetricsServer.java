@@ -0,0 +1,84 @@
+package net.rastertail.overvoltage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A tiny HTTP server exposing {@link Metrics} at /metrics for Prometheus to scrape */
+public class MetricsServer implements AutoCloseable {
+    /** Logger for this class */
+    private final Logger LOG = LoggerFactory.getLogger(MetricsServer.class);
+
+    /** Content type of the Prometheus text format */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** The underlying HTTP server */
+    private HttpServer server;
+
+    /** Thread answering scrapes */
+    private ExecutorService executor;
+
+    /**
+     * Construct and start a new metrics server
+     *
+     * @param host the address to listen on
+     * @param port the port to listen on
+     *
+     * @throws IOException if the server cannot be bound
+     */
+    public MetricsServer(String host, int port) throws IOException {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.server.createContext("/metrics", this::handle);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+
+        LOG.info("Serving metrics on http://{}:{}/metrics", host, port);
+    }
+
+    /**
+     * Answer a scrape
+     *
+     * @param exchange the HTTP exchange
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = Metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to serve metrics: {}", e);
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Stop the server */
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,489 @@
+package net.rastertail.overvoltage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import libsidplay.sidtune.SidTune;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A disk-backed cache of pre-rendered, pre-encoded tunes
+ *
+ * Each entry is a segment file holding a table of packet offsets followed by the
+ * 20ms Opus packets themselves. Segments are memory-mapped for playback, so hot
+ * tunes are streamed straight from the page cache without running an emulator.
+ * Tunes are rendered into the cache in the background once they have been played
+ * often enough, and the least recently used segments are evicted to stay within a
+ * size limit.
+ */
+public class OpusCache implements AutoCloseable {
+    /** A playback cursor over a cached tune */
+    public static class Stream {
+        /** The mapped segment */
+        private ByteBuffer segment;
+
+        /** Reusable view over the current packet */
+        private ByteBuffer packet;
+
+        /** Number of packets in the segment */
+        private int frames;
+
+        /** Index of the next packet to return, only written by the consumer */
+        private volatile int next;
+
+        /** Packet the consumer should jump to before its next packet, or -1 if none */
+        private final AtomicLong pendingSeek = new AtomicLong(-1);
+
+        /**
+         * Construct a new stream over a mapped segment
+         *
+         * @param segment the mapped segment
+         *
+         * @throws IOException if the segment is malformed
+         */
+        Stream(ByteBuffer segment) throws IOException {
+            if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION) {
+                throw new IOException("Not an Opus cache segment");
+            }
+
+            this.segment = segment;
+            this.packet = segment.duplicate();
+            this.frames = segment.getInt(8);
+            this.next = 0;
+        }
+
+        /**
+         * Jump to a given packet
+         *
+         * May be called from any thread; the consumer takes the jump up on its next call
+         * to {@link #next()}. The jump belongs to this stream alone, so it can never carry
+         * over to whatever plays after it.
+         *
+         * @param frame the index of the packet to play next, clamped to the stream
+         */
+        public void seek(long frame) {
+            this.pendingSeek.set(Math.max(0, Math.min(frame, this.frames)));
+        }
+
+        /** Get if there are packets left to play */
+        public boolean hasNext() {
+            return this.next < this.frames;
+        }
+
+        /** Get the total number of packets */
+        public int length() {
+            return this.frames;
+        }
+
+        /** Get the number of packets left to play */
+        public int remaining() {
+            return this.frames - this.next;
+        }
+
+        /**
+         * Get the next packet
+         *
+         * @return a view over the next packet, valid until the next call, or null at the end
+         */
+        public ByteBuffer next() {
+            long seek = this.pendingSeek.getAndSet(-1);
+            if (seek >= 0) {
+                this.next = (int) seek;
+            }
+            if (!this.hasNext()) {
+                return null;
+            }
+
+            // Look up packet bounds in the offset table
+            int dataStart = HEADER_BYTES + (this.frames + 1) * Integer.BYTES;
+            int start = this.segment.getInt(HEADER_BYTES + this.next * Integer.BYTES);
+            int end = this.segment.getInt(HEADER_BYTES + (this.next + 1) * Integer.BYTES);
+            this.next++;
+
+            this.packet.limit(dataStart + end);
+            this.packet.position(dataStart + start);
+            return this.packet;
+        }
+    }
+
+    /** Logger for this class */
+    private final Logger LOG = LoggerFactory.getLogger(OpusCache.class);
+
+    /** Segment file magic number, "OVOC" */
+    private static final int MAGIC = 0x4F564F43;
+
+    /** Segment file format version */
+    private static final int VERSION = 1;
+
+    /** Size of the segment header: magic, version and packet count */
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+
+    /** File extension of complete segments */
+    private static final String SEGMENT_EXT = ".opus";
+
+    /** Maximum number of tunes whose plays are counted, least recently played dropped first */
+    private static final int MAX_COUNTED_TUNES = 10_000;
+
+    /** Number of 20ms frames in a second */
+    private static final int FRAMES_PER_SECOND = 50;
+
+    /** Directory holding segment files */
+    private Path dir;
+
+    /** Maximum total size of all segments in bytes */
+    private long maxBytes;
+
+    /** How many plays make a tune worth caching */
+    private int playThreshold;
+
+    /** Length in frames of the longest tune to cache */
+    private int maxFrames;
+
+    /** Sizes of cached segments keyed by cache key, least recently used first */
+    private LinkedHashMap<String, Long> segments;
+
+    /** Total size of all cached segments in bytes */
+    private long totalBytes;
+
+    /** Play counts of tunes not yet cached, least recently played first */
+    private LinkedHashMap<String, Integer> plays;
+
+    /** Keys currently being rendered */
+    private HashSet<String> pending;
+
+    /** Background thread rendering tunes into the cache */
+    private ExecutorService renderer;
+
+    /**
+     * Open an Opus cache, picking up segments left by previous runs
+     *
+     * @param dir the directory to keep segments in
+     * @param maxBytes the maximum total size of all segments in bytes
+     * @param playThreshold how many plays make a tune worth caching
+     * @param maxSeconds the length in seconds of the longest tune to cache
+     *
+     * @throws IOException if the cache directory is inaccessible
+     */
+    public OpusCache(
+        Path dir,
+        long maxBytes,
+        int playThreshold,
+        int maxSeconds
+    ) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.playThreshold = playThreshold;
+        this.maxFrames = maxSeconds * FRAMES_PER_SECOND;
+        this.segments = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        this.plays = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return this.size() > MAX_COUNTED_TUNES;
+            }
+        };
+        this.pending = new HashSet<String>();
+
+        this.renderer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "opus-cache");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+
+        // Load existing segments, oldest use first
+        Files.createDirectories(dir);
+        List<Path> existing;
+        try (java.util.stream.Stream<Path> list = Files.list(dir)) {
+            existing = list
+                .filter(p -> p.getFileName().toString().endsWith(SEGMENT_EXT))
+                .sorted(Comparator.comparing(OpusCache::lastModified))
+                .collect(Collectors.toList());
+        }
+        for (Path segment : existing) {
+            String name = segment.getFileName().toString();
+            String key = name.substring(0, name.length() - SEGMENT_EXT.length());
+            this.register(key, Files.size(segment));
+        }
+
+        LOG.info("Opus cache holds {} tunes ({} MiB)", this.segments.size(), this.totalBytes >> 20);
+    }
+
+    /** Stop rendering tunes into the cache, abandoning any render in progress */
+    @Override
+    public void close() {
+        this.renderer.shutdownNow();
+    }
+
+    /**
+     * Compute the cache key of a tune
+     *
+     * The length is part of the key, so segments rendered before the song length
+     * database changed are not played to the old end.
+     *
+     * @param path the HVSC path of the tune
+     * @param subtune the subtune number
+     * @param frames the length of the subtune in frames, or 0 if unknown
+     *
+     * @return the cache key
+     */
+    public static String key(Path path, int subtune, long frames) {
+        byte[] id = (path + "#" + subtune + "#" + frames + "#" + VoiceSender.CONFIG_ID)
+            .getBytes(StandardCharsets.UTF_8);
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(id)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * Open a cached tune for playback
+     *
+     * @param key the tune's cache key
+     *
+     * @return a playback stream, or null if the tune is not cached or the calling thread
+     *     was interrupted
+     */
+    public Stream open(String key) {
+        synchronized (this) {
+            if (this.segments.get(key) == null) {
+                return null;
+            }
+        }
+
+        Path segment = this.segmentPath(key);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Files.setLastModifiedTime(segment, FileTime.fromMillis(System.currentTimeMillis()));
+            return new Stream(mapped);
+        } catch (ClosedByInterruptException e) {
+            // The segment is fine, the caller just gave up on it
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Dropping unreadable Opus cache segment {}: {}", segment, e);
+            this.evict(key);
+            return null;
+        }
+    }
+
+    /**
+     * Record a live play of a tune, caching it in the background once it is popular
+     *
+     * Only tunes of known length up to the length limit are cached, and always in full,
+     * so a cached play ends exactly where a live one would. Anything else would either
+     * cut the tune short or never end, which only live emulation can do.
+     *
+     * @param key the tune's cache key
+     * @param path the tune's HVSC path
+     * @param loader loads a fresh copy of the tune
+     * @param subtune the subtune to render
+     * @param frames the length of the subtune in frames, or 0 if unknown
+     */
+    public void recordPlay(
+        String key,
+        String path,
+        Callable<SidTune> loader,
+        int subtune,
+        long frames
+    ) {
+        if (frames <= 0 || frames > this.maxFrames) {
+            return;
+        }
+
+        synchronized (this) {
+            int count = this.plays.merge(key, 1, Integer::sum);
+            if (count < this.playThreshold
+                || this.segments.containsKey(key)
+                || !this.pending.add(key)) {
+                return;
+            }
+            this.plays.remove(key);
+        }
+        this.renderer.submit(() -> this.render(key, path, loader, subtune, (int) frames));
+    }
+
+    /**
+     * Render and encode a tune into a new segment
+     *
+     * @param key the tune's cache key, naming the segment files
+     * @param path the tune's HVSC path, labelling the player
+     * @param loader loads a fresh copy of the tune
+     * @param subtune the subtune to render
+     * @param length how many frames to render
+     */
+    private void render(
+        String key,
+        String path,
+        Callable<SidTune> loader,
+        int subtune,
+        int length
+    ) {
+        long start = System.nanoTime();
+        Path temp = this.dir.resolve(key + ".tmp");
+        SidPlayer player = null;
+
+        try {
+            // Start the tune on a private player
+            SidTune tune = loader.call();
+            tune.getInfo().setSelectedSong(subtune);
+            tune.prepare();
+            player = new SidPlayer(VoiceSender.createConfig());
+            player.play(tune, path);
+
+            // Render as fast as possible, collecting the player's encoded packets
+            int[] offsets = new int[length + 1];
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int frames = 0;
+            while (frames < length) {
+                player.render(Math.min(player.driver().free(), length - frames));
+                while (player.driver().hasData() && frames < length) {
+                    ByteBuffer packet = player.driver().read();
+                    data.write(
+                        packet.array(),
+                        packet.arrayOffset() + packet.position(),
+                        packet.remaining()
+                    );
+                    offsets[++frames] = data.size();
+                }
+            }
+
+            // Write out the segment, then move it into place
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + offsets.length * Integer.BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(frames);
+            for (int offset : offsets) {
+                header.putInt(offset);
+            }
+            header.flip();
+
+            try (FileChannel out = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+            )) {
+                out.write(header);
+                out.write(ByteBuffer.wrap(data.toByteArray()));
+            }
+            Files.move(
+                temp,
+                this.segmentPath(key),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+
+            synchronized (this) {
+                this.register(key, Files.size(this.segmentPath(key)));
+            }
+            LOG.info(
+                "Cached {} frames of {} in {}ms",
+                frames,
+                key,
+                (System.nanoTime() - start) / 1_000_000
+            );
+        } catch (Exception e) {
+            LOG.warn("Failed to cache tune {}: {}", path, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ex) {
+                LOG.warn("Failed to clean up {}: {}", temp, ex);
+            }
+        } finally {
+            if (player != null) {
+                player.close();
+            }
+            synchronized (this) {
+                this.pending.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Track a new segment and evict old ones to stay within the size limit
+     *
+     * @param key the segment's cache key
+     * @param size the segment's size in bytes
+     */
+    private synchronized void register(String key, long size) {
+        Long previous = this.segments.put(key, size);
+        this.totalBytes += size - (previous != null ? previous : 0);
+
+        while (this.totalBytes > this.maxBytes && this.segments.size() > 1) {
+            String eldest = this.segments.keySet().iterator().next();
+            this.evict(eldest);
+        }
+    }
+
+    /**
+     * Remove a segment from the cache
+     *
+     * Streams already playing from it keep working, as the mapping outlives the file.
+     *
+     * @param key the segment's cache key
+     */
+    private synchronized void evict(String key) {
+        Long size = this.segments.remove(key);
+        if (size != null) {
+            this.totalBytes -= size;
+        }
+
+        try {
+            Files.deleteIfExists(this.segmentPath(key));
+        } catch (IOException e) {
+            LOG.warn("Failed to delete Opus cache segment {}: {}", key, e);
+        }
+    }
+
+    /**
+     * Get the path of a segment file
+     *
+     * @param key the segment's cache key
+     *
+     * @return the segment's path
+     */
+    private Path segmentPath(String key) {
+        return this.dir.resolve(key + SEGMENT_EXT);
+    }
+
+    /**
+     * Get the modification time of a file, treating unreadable files as ancient
+     *
+     * @param path the file
+     *
+     * @return the modification time
+     */
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package net.rastertail.overvoltage;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import com.sun.jna.ptr.PointerByReference;
+import net.dv8tion.jda.api.audio.AudioNatives;
+import net.dv8tion.jda.api.audio.OpusPacket;
+import tomp2p.opuswrapper.Opus;
+
+/** An Opus encoder for 20ms frames of Discord PCM audio, using JDA's bundled natives */
+public class OpusEncoder implements AutoCloseable {
+    /** Largest Opus packet we will produce in bytes */
+    public static final int MAX_PACKET_BYTES = 4000;
+
+    /** A single frame of Opus silence */
+    public static final byte[] SILENCE = {(byte) 0xF8, (byte) 0xFF, (byte) 0xFE};
+
+    /** The native encoder state */
+    private PointerByReference encoder;
+
+    /** Reusable buffer of native-order PCM samples */
+    private ShortBuffer pcm;
+
+    /** Reusable buffer for the encoded packet */
+    private ByteBuffer packet;
+
+    /** Construct a new encoder for 48kHz stereo audio */
+    public OpusEncoder() {
+        if (!AudioNatives.ensureOpus()) {
+            throw new IllegalStateException("Opus natives are not available");
+        }
+
+        IntBuffer error = IntBuffer.allocate(1);
+        this.encoder = Opus.INSTANCE.opus_encoder_create(
+            OpusPacket.OPUS_SAMPLE_RATE,
+            OpusPacket.OPUS_CHANNEL_COUNT,
+            Opus.OPUS_APPLICATION_AUDIO,
+            error
+        );
+        if (error.get(0) != Opus.OPUS_OK) {
+            throw new IllegalStateException("Failed to create Opus encoder: " + error.get(0));
+        }
+
+        this.pcm = ShortBuffer.allocate(OpusPacket.OPUS_FRAME_SIZE * OpusPacket.OPUS_CHANNEL_COUNT);
+        this.packet = ByteBuffer.allocate(MAX_PACKET_BYTES);
+    }
+
+    /**
+     * Encode a frame of audio
+     *
+     * @param frame 20ms of 16-bit big-endian stereo PCM, which is not consumed
+     *
+     * @return the encoded packet, valid until the next call to this method
+     */
+    public ByteBuffer encode(ByteBuffer frame) {
+        this.packet.clear();
+        this.packet.limit(this.encode(frame, this.packet));
+        return this.packet;
+    }
+
+    /**
+     * Encode a frame of audio into a given buffer
+     *
+     * @param frame 20ms of 16-bit big-endian stereo PCM, which is not consumed
+     * @param out the buffer to write the packet to, from its start up to its capacity
+     *
+     * @return the length of the encoded packet in bytes
+     */
+    public int encode(ByteBuffer frame, ByteBuffer out) {
+        // Convert samples to native order for the encoder
+        this.pcm.clear();
+        for (int i = frame.position(); i + 1 < frame.limit(); i += Short.BYTES) {
+            this.pcm.put(frame.getShort(i));
+        }
+        this.pcm.flip();
+
+        // Encode straight into the output buffer
+        int length = Opus.INSTANCE.opus_encode(
+            this.encoder,
+            this.pcm,
+            OpusPacket.OPUS_FRAME_SIZE,
+            out,
+            out.capacity()
+        );
+        if (length < 0) {
+            throw new IllegalStateException("Opus encoding failed: " + length);
+        }
+
+        return length;
+    }
+
+    /** Free the native encoder */
+    @Override
+    public void close() {
+        if (this.encoder != null) {
+            Opus.INSTANCE.opus_encoder_destroy(this.encoder);
+            this.encoder = null;
+        }
+    }
+}
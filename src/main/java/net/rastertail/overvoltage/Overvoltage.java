@@ -2,10 +2,15 @@ package net.rastertail.overvoltage;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import javax.management.JMException;
 import javax.security.auth.login.LoginException;
 
+import libsidplay.sidtune.SidTune;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -13,8 +18,7 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 import net.dv8tion.jda.api.utils.cache.CacheFlag;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +32,144 @@ public class Overvoltage implements Callable<Integer> {
     @Option(names = {"-r", "--reindex"}, description = "Force reindex the SID database")
     private boolean reindex;
 
+    /** Number of threads to index the SID database with */
+    @Option(names = {"--index-threads"}, description = "Threads to use while indexing")
+    private int indexThreads = Runtime.getRuntime().availableProcessors();
+
+    /** Size of the index writer RAM buffer */
+    @Option(names = {"--index-ram-mb"}, description = "Index writer RAM buffer size in MB")
+    private double indexRamMb = 256.0;
+
+    /** Whether or not to preload the whole search index into memory */
+    @Option(names = {"--preload-index"}, description = "Preload the search index into memory")
+    private boolean preloadIndex;
+
+    /** Maximum size of the pre-rendered tune cache */
+    @Option(
+        names = {"--opus-cache-mb"},
+        description = "Pre-rendered tune cache size in MB, 0 to disable"
+    )
+    private long opusCacheMb = 1024;
+
+    /** Number of plays after which a tune is pre-rendered */
+    @Option(names = {"--opus-cache-plays"}, description = "Plays before a tune is pre-rendered")
+    private int opusCachePlays = 2;
+
+    /** Length of the longest tune to pre-render */
+    @Option(
+        names = {"--opus-cache-seconds"},
+        description = "Length in seconds of the longest tune to pre-render"
+    )
+    private int opusCacheSeconds = 600;
+
+    /** How long the radio station plays tunes of unknown length */
+    @Option(
+        names = {"--station-tune-seconds"},
+        description = "Seconds per tune of unknown length on the radio"
+    )
+    private int stationTuneSeconds = 180;
+
+    /** How long tunes missing from the song length database play for */
+    @Option(
+        names = {"--default-song-seconds"},
+        description = "Seconds to play tunes of unknown length for, 0 to play forever"
+    )
+    private int defaultSongSeconds = 0;
+
+    /** Maximum number of emulators playing at once */
+    @Option(names = {"--max-players"}, description = "Maximum number of emulators at once")
+    private int maxPlayers = 64;
+
+    /** Number of emulators to keep ready */
+    @Option(names = {"--warm-players"}, description = "Emulators to keep ready for new guilds")
+    private int warmPlayers = 2;
+
+    /** How long a spare emulator is kept around */
+    @Option(
+        names = {"--player-idle-seconds"},
+        description = "Seconds before a spare emulator is dropped"
+    )
+    private long playerIdleSeconds = 300;
+
+    /** How long to stay in a voice channel without playing anything */
+    @Option(
+        names = {"--idle-disconnect-seconds"},
+        description = "Seconds of silence before leaving a voice channel"
+    )
+    private long idleDisconnectSeconds = 300;
+
+    /** Render load above which quality is reduced */
+    @Option(
+        names = {"--quality-degrade-percent"},
+        description = "Render load in percent above which quality is reduced, 0 to never"
+    )
+    private int qualityDegradePercent = 85;
+
+    /** Render load below which quality is restored */
+    @Option(
+        names = {"--quality-restore-percent"},
+        description = "Render load in percent below which quality is restored"
+    )
+    private int qualityRestorePercent = 50;
+
+    /** How long render load must stay low before quality is restored */
+    @Option(
+        names = {"--quality-restore-seconds"},
+        description = "Seconds render load must stay low before quality is restored"
+    )
+    private long qualityRestoreSeconds = 30;
+
+    /** How long to warm up the emulator for */
+    @Option(
+        names = {"--warmup-seconds"},
+        description = "Seconds of each warm-up tune to render at startup, 0 to skip"
+    )
+    private int warmupSeconds = 0;
+
+    /** Number of commands to run at once */
+    @Option(names = {"--command-threads"}, description = "Threads to run commands on")
+    private int commandThreads = 4;
+
+    /** Maximum number of commands waiting or running */
+    @Option(
+        names = {"--command-backlog"},
+        description = "Commands to accept before telling users the bot is busy"
+    )
+    private int commandBacklog = 64;
+
+    /** How long a command may take */
+    @Option(
+        names = {"--command-timeout-seconds"},
+        description = "Seconds a command may take, including time spent waiting"
+    )
+    private long commandTimeoutSeconds = 30;
+
+    /** Port to serve Prometheus metrics on */
+    @Option(names = {"--metrics-port"}, description = "Port to serve metrics on, 0 to disable")
+    private int metricsPort = 0;
+
+    /** Address to serve Prometheus metrics on */
+    @Option(names = {"--metrics-host"}, description = "Address to serve metrics on")
+    private String metricsHost = "127.0.0.1";
+
+    /** Whether or not to keep an always-on flight recording */
+    @Option(
+        names = {"--flight-recorder"},
+        description = "Keep an always-on flight recording, dumpable with jcmd JFR.dump"
+    )
+    private boolean flightRecorder;
+
+    /** How much flight recording data to keep */
+    @Option(names = {"--flight-recorder-mb"}, description = "Flight recording data to keep in MB")
+    private long flightRecorderMb = 64;
+
+    /** How long to keep flight recording data for */
+    @Option(
+        names = {"--flight-recorder-minutes"},
+        description = "Minutes of flight recording data to keep"
+    )
+    private long flightRecorderMinutes = 30;
+
     /** Whether or not to update Discord slash commands */
     @Option(names = {"-u", "--update-commands"}, description = "Update Discord slash commands")
     private boolean updateCommands;
@@ -45,22 +187,164 @@ public class Overvoltage implements Callable<Integer> {
             String data_dir = System.getenv("DATA_DIR");
             String hvsc_path = System.getenv("HVSC_PATH");
 
-            // Load SID database
-            Directory index = FSDirectory.open(Paths.get(data_dir, "index"));
-            SidDatabase sidDb = new SidDatabase(Paths.get(hvsc_path), index, this.reindex);
+            // Start recording hot path events
+            if (this.flightRecorder) {
+                FlightEvents.startRecording(
+                    this.flightRecorderMb << 20,
+                    Duration.ofMinutes(this.flightRecorderMinutes)
+                );
+                LOG.info("Flight recording started as `{}`", FlightEvents.RECORDING_NAME);
+            }
+
+            // Expose metrics
+            try {
+                Metrics.registerJmx();
+            } catch (JMException e) {
+                LOG.warn("Failed to register metrics with JMX: {}", e);
+            }
+            MetricsServer metricsServer = null;
+            if (this.metricsPort > 0) {
+                metricsServer = new MetricsServer(this.metricsHost, this.metricsPort);
+            }
+
+            // Load the SID database in the background, so that the bot comes online
+            // right away even if the index has to be built first
+            CompletableFuture<SidDatabase> sidDb = new CompletableFuture<SidDatabase>();
+            Thread loader = new Thread(() -> {
+                try {
+                    sidDb.complete(this.loadDatabase(data_dir, hvsc_path));
+                } catch (Exception e) {
+                    sidDb.completeExceptionally(e);
+                }
+            }, "index-loader");
+            loader.setDaemon(true);
+            loader.start();
+            Metrics.gauge(
+                "overvoltage_index_ready",
+                "Whether or not the SID database has loaded",
+                () -> sidDb.isDone() && !sidDb.isCompletedExceptionally() ? 1 : 0
+            );
+
+            // The bot is no use without its database, so give up if it fails to load
+            sidDb.whenComplete((db, e) -> {
+                if (e != null) {
+                    LOG.error("Failed to load SID database: {}", e);
+                    System.exit(-1);
+                }
+            });
+
+            // Get the emulator compiled while everything else starts up
+            if (this.warmupSeconds > 0) {
+                JitWarmup.start(Paths.get(hvsc_path), this.warmupSeconds);
+            }
+
+            // Start shared render threads and warm up emulators
+            RenderScheduler scheduler = new RenderScheduler();
+            QualityGovernor governor = new QualityGovernor(
+                scheduler.threads(),
+                this.qualityDegradePercent,
+                this.qualityRestorePercent,
+                this.qualityRestoreSeconds
+            );
+            PlayerPool playerPool = new PlayerPool(
+                this.maxPlayers,
+                this.warmPlayers,
+                this.playerIdleSeconds
+            );
+
+            // Open pre-rendered tune cache
+            OpusCache opusCache = null;
+            if (this.opusCacheMb > 0) {
+                opusCache = new OpusCache(
+                    Paths.get(data_dir, "opus-cache"),
+                    this.opusCacheMb << 20,
+                    this.opusCachePlays,
+                    this.opusCacheSeconds
+                );
+            }
+
+            // Start the radio station, shuffling through the whole database
+            Station station = new Station(
+                "Overvoltage Radio",
+                () -> {
+                    if (!sidDb.isDone()) {
+                        return null;
+                    }
+                    SidDatabase db = sidDb.join();
+                    SidDatabase.SidInfo info = db.random();
+                    if (info == null) {
+                        return null;
+                    }
+
+                    SidTune tune = db.load(info.path);
+                    int song = tune.getInfo().getStartSong();
+                    tune.getInfo().setSelectedSong(song);
+                    tune.prepare();
+                    return new VoiceSender.QueuedTune(
+                        tune,
+                        info.path.toString(),
+                        info.title + " by " + info.artist,
+                        db.songLength(info.path, song)
+                    );
+                },
+                this.stationTuneSeconds,
+                scheduler
+            );
 
             // Connect to Discord
-            Bot bot = new Bot(sidDb);
+            CommandQueue commands = new CommandQueue(
+                this.commandThreads,
+                this.commandBacklog,
+                this.commandTimeoutSeconds
+            );
+            Bot bot = new Bot(
+                sidDb,
+                scheduler,
+                opusCache,
+                station,
+                playerPool,
+                governor,
+                commands
+            );
             JDA jda = JDABuilder.createDefault(bot_token, GatewayIntent.GUILD_VOICE_STATES)
                 .addEventListeners(bot)
                 .enableCache(CacheFlag.VOICE_STATE)
                 .disableCache(CacheFlag.EMOTE)
                 .build();
 
+            // Leave voice channels nobody is using
+            bot.startIdleReaper(jda, this.idleDisconnectSeconds);
+
             // Potentially update slash commands
             if (this.updateCommands) {
                 bot.updateCommands(jda);
             }
+
+            // Tear everything down in order on exit
+            OpusCache cache = opusCache;
+            MetricsServer metrics = metricsServer;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                LOG.info("Shutting down...");
+                jda.shutdown();
+                bot.close();
+                station.close();
+                governor.close();
+                try {
+                    scheduler.close();
+                    if (sidDb.isDone() && !sidDb.isCompletedExceptionally()) {
+                        sidDb.join().close();
+                    }
+                } catch (Exception e) {
+                    LOG.warn("Error during shutdown: {}", e);
+                }
+                playerPool.close();
+                if (cache != null) {
+                    cache.close();
+                }
+                if (metrics != null) {
+                    metrics.close();
+                }
+            }, "shutdown"));
         } catch (Exception e) {
             LOG.error("Uncaught exception: {}", e);
             return -1;
@@ -69,6 +353,43 @@ public class Overvoltage implements Callable<Integer> {
         return 0;
     }
 
+    /**
+     * Open the SID database, building or updating its index as needed
+     *
+     * @param dataDir the directory to keep the index in
+     * @param hvscPath the HVSC root
+     *
+     * @return the opened database
+     *
+     * @throws IOException if the index or song lengths cannot be loaded
+     */
+    private SidDatabase loadDatabase(String dataDir, String hvscPath) throws IOException {
+        MMapDirectory index = new MMapDirectory(Paths.get(dataDir, "index"));
+        index.setPreload(this.preloadIndex);
+        SidDatabase.Options dbOptions = new SidDatabase.Options();
+        dbOptions.indexThreads = this.indexThreads;
+        dbOptions.ramBufferMb = this.indexRamMb;
+        dbOptions.manifestPath = Paths.get(dataDir, "manifest.tsv");
+        dbOptions.defaultSongSeconds = this.defaultSongSeconds;
+
+        // Load song lengths shipped with the HVSC
+        Path songLengthsPath = Paths.get(hvscPath, "DOCUMENTS", "Songlengths.md5");
+        if (Files.exists(songLengthsPath)) {
+            dbOptions.songLengths = SongLengths.load(songLengthsPath);
+            LOG.info("Loaded song lengths for {} tunes", dbOptions.songLengths.size());
+        } else {
+            LOG.warn("No song length database at {}, tunes will not end", songLengthsPath);
+        }
+
+        // Open the database, building or updating its index first
+        return new SidDatabase(
+            Paths.get(hvscPath),
+            index,
+            this.reindex,
+            dbOptions
+        );
+    }
+
     /**
      * Start the bot
      *
@@ -0,0 +1,234 @@
+package net.rastertail.overvoltage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of ready-to-use SID players
+ *
+ * Building a player means building a whole emulated C64, so players are kept and
+ * reused between guilds instead of being thrown away. A few players are built up
+ * front so the first tune played does not pay for construction, extra players are
+ * dropped after sitting idle for a while, and the total number of players is capped.
+ */
+public class PlayerPool implements AutoCloseable {
+    /** A player waiting in the pool */
+    private static class Idle {
+        /** The idle player */
+        SidPlayer player;
+
+        /** When the player was returned to the pool */
+        long since;
+
+        /**
+         * Construct a new idle entry
+         *
+         * @param player the idle player
+         * @param since when the player was returned to the pool
+         */
+        Idle(SidPlayer player, long since) {
+            this.player = player;
+            this.since = since;
+        }
+    }
+
+    /** Logger for this class */
+    private final Logger LOG = LoggerFactory.getLogger(PlayerPool.class);
+
+    /** Idle players, most recently used first */
+    private ArrayDeque<Idle> idle;
+
+    /** Players currently handed out */
+    private Set<SidPlayer> lent;
+
+    /** Number of players in existence, idle or not, including ones being built */
+    private int total;
+
+    /** Maximum number of players in existence */
+    private int max;
+
+    /** Number of players to keep around even when idle */
+    private int warm;
+
+    /** How long a player may sit idle before it is dropped, in nanoseconds */
+    private long maxIdleNanos;
+
+    /** Thread dropping idle players */
+    private ScheduledExecutorService reaper;
+
+    /** Whether or not this pool has been closed */
+    private boolean closed;
+
+    /**
+     * Construct a new pool, building its warm players right away
+     *
+     * @param max the maximum number of players in existence
+     * @param warm the number of players to keep around even when idle
+     * @param maxIdleSeconds how long extra players may sit idle before being dropped
+     */
+    public PlayerPool(int max, int warm, long maxIdleSeconds) {
+        this.idle = new ArrayDeque<Idle>();
+        this.lent = Collections.newSetFromMap(new IdentityHashMap<SidPlayer, Boolean>());
+        this.max = max;
+        this.warm = Math.min(warm, max);
+        this.maxIdleNanos = TimeUnit.SECONDS.toNanos(maxIdleSeconds);
+
+        // Build warm players
+        long now = System.nanoTime();
+        for (int i = 0; i < this.warm; i++) {
+            this.idle.push(new Idle(new SidPlayer(VoiceSender.createConfig()), now));
+            this.total++;
+        }
+
+        // Periodically drop players which have been idle for too long
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "player-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(maxIdleSeconds / 2, 1);
+        this.reaper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.SECONDS);
+
+        LOG.info("Player pool ready with {} warm players, up to {}", this.warm, this.max);
+    }
+
+    /**
+     * Take a player from the pool, building a new one if none are idle
+     *
+     * @return a stopped player with no buffered audio, or null if the pool is exhausted
+     */
+    public SidPlayer acquire() {
+        synchronized (this) {
+            if (this.closed) {
+                return null;
+            }
+
+            Idle reused = this.idle.poll();
+            if (reused != null) {
+                this.lent.add(reused.player);
+                return reused.player;
+            }
+            if (this.total >= this.max) {
+                LOG.warn("Player pool exhausted at {} players", this.total);
+                return null;
+            }
+
+            // Reserve a slot and build outside the lock
+            this.total++;
+        }
+
+        try {
+            SidPlayer built = new SidPlayer(VoiceSender.createConfig());
+            synchronized (this) {
+                this.lent.add(built);
+            }
+            return built;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                this.total--;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return a player to the pool, stopping it first
+     *
+     * Must be called from the thread which last rendered with the player, and only once
+     * nothing reads from it any more, since stopping it clears its driver and the player
+     * may be handed to another guild right away. Returning a player twice would hand it
+     * to two guilds at once, so it is refused.
+     *
+     * @param player the player to return
+     *
+     * @throws IllegalStateException if the player is not currently handed out
+     */
+    public void release(SidPlayer player) {
+        synchronized (this) {
+            if (!this.lent.remove(player)) {
+                throw new IllegalStateException("Player returned to the pool twice");
+            }
+        }
+
+        player.stop();
+        player.setGuild(null);
+
+        synchronized (this) {
+            if (!this.closed) {
+                this.idle.push(new Idle(player, System.nanoTime()));
+                return;
+            }
+            this.total--;
+        }
+
+        // Nowhere to put the player once the pool is closed
+        player.close();
+    }
+
+    /** Stop dropping idle players and free all idle players */
+    @Override
+    public void close() {
+        this.reaper.shutdownNow();
+
+        ArrayDeque<Idle> dropped;
+        synchronized (this) {
+            this.closed = true;
+            dropped = this.idle;
+            this.idle = new ArrayDeque<Idle>();
+            this.total -= dropped.size();
+        }
+
+        for (Idle i : dropped) {
+            i.player.close();
+        }
+    }
+
+    /** Get if a player could be handed out right now */
+    public synchronized boolean available() {
+        return !this.closed && (!this.idle.isEmpty() || this.total < this.max);
+    }
+
+    /** Get the number of players in existence */
+    public synchronized int size() {
+        return this.total;
+    }
+
+    /** Get the number of idle players */
+    public synchronized int idle() {
+        return this.idle.size();
+    }
+
+    /** Drop players which have been idle for too long, keeping the warm ones */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        ArrayList<SidPlayer> dropped = new ArrayList<SidPlayer>();
+
+        synchronized (this) {
+            // The least recently used players are at the back
+            while (this.total > this.warm && !this.idle.isEmpty()) {
+                if (now - this.idle.peekLast().since < this.maxIdleNanos) {
+                    break;
+                }
+                dropped.add(this.idle.removeLast().player);
+                this.total--;
+            }
+        }
+
+        // Idle players are not used by any thread, so they can be freed from here
+        for (SidPlayer player : dropped) {
+            player.close();
+        }
+        if (!dropped.isEmpty()) {
+            LOG.debug("Dropped {} idle players", dropped.size());
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package net.rastertail.overvoltage;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import libsidplay.common.SamplingMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trades audio quality for render time when the render threads cannot keep up
+ *
+ * Every voice sender has to render a frame every 20ms, so the render threads' load is
+ * the time spent rendering frames relative to the 20ms budget of every thread. Once the
+ * load stays above a high water mark, every voice sender steps down one quality level;
+ * only after it has stayed below a much lower mark for a good while does quality step
+ * back up, so that regaining headroom does not immediately cost it again.
+ */
+public class QualityGovernor implements AutoCloseable {
+    /** Logger for this class */
+    private final Logger LOG = LoggerFactory.getLogger(QualityGovernor.class);
+
+    /** The quality levels, best first */
+    public enum Level {
+        /** Full quality resampling */
+        FULL(SamplingMethod.RESAMPLE),
+
+        /** Cheaper decimation instead of resampling */
+        REDUCED(SamplingMethod.DECIMATE),
+
+        /** Reduced quality, and no new tunes are emulated */
+        SHEDDING(SamplingMethod.DECIMATE);
+
+        /** How voice senders resample emulator output at this level */
+        public final SamplingMethod sampling;
+
+        /**
+         * Construct a new level
+         *
+         * @param sampling how voice senders resample emulator output at this level
+         */
+        Level(SamplingMethod sampling) {
+            this.sampling = sampling;
+        }
+    }
+
+    /** The current quality level, as its ordinal */
+    private static final Metrics.Gauge LEVEL = Metrics.gauge(
+        "overvoltage_quality_level",
+        "Current quality level: 0 full, 1 reduced, 2 shedding new tunes"
+    );
+
+    /** Render thread load as of the last check */
+    private static final Metrics.Gauge LOAD = Metrics.gauge(
+        "overvoltage_render_load_percent",
+        "Time spent rendering frames relative to the render threads' real time budget"
+    );
+
+    /** Steps down in quality */
+    private static final Metrics.Counter DEGRADED = Metrics.counter(
+        "overvoltage_quality_degraded_total",
+        "Times quality was stepped down because rendering could not keep up"
+    );
+
+    /** Steps back up in quality */
+    private static final Metrics.Counter RESTORED = Metrics.counter(
+        "overvoltage_quality_restored_total",
+        "Times quality was stepped back up after load went down"
+    );
+
+    /** Tunes refused while shedding */
+    private static final Metrics.Counter SHED = Metrics.counter(
+        "overvoltage_quality_shed_tunes_total",
+        "Tunes refused because new tunes were being shed"
+    );
+
+    /** How often the load is checked */
+    private static final long PERIOD_MILLIS = 1000;
+
+    /** Number of consecutive checks above the high water mark before stepping down */
+    private static final int DEGRADE_CHECKS = 2;
+
+    /** Time spent rendering since the last check, in nanoseconds */
+    private LongAdder busyNanos;
+
+    /** The clock load is measured against, in nanoseconds */
+    private LongSupplier clock;
+
+    /** Number of render threads sharing the load */
+    private int threads;
+
+    /** Load percentage above which quality steps down */
+    private int degradePercent;
+
+    /** Load percentage below which quality may step back up */
+    private int restorePercent;
+
+    /** Number of consecutive checks below the low water mark before stepping up */
+    private int restoreChecks;
+
+    /** Consecutive checks above the high water mark */
+    private int overloaded;
+
+    /** Consecutive checks below the low water mark */
+    private int relaxed;
+
+    /** When the last check ran, in {@link System#nanoTime()} time */
+    private long lastCheck;
+
+    /** The current quality level */
+    private volatile Level level;
+
+    /** Thread checking the load, if quality is adaptive */
+    private ScheduledExecutorService checker;
+
+    /**
+     * Construct a new governor, and start checking the load unless disabled
+     *
+     * @param threads the number of render threads sharing the load
+     * @param degradePercent the load percentage above which quality steps down, 0 for never
+     * @param restorePercent the load percentage below which quality may step back up
+     * @param restoreSeconds how long load must stay low before quality steps back up
+     */
+    public QualityGovernor(
+        int threads,
+        int degradePercent,
+        int restorePercent,
+        long restoreSeconds
+    ) {
+        this(threads, degradePercent, restorePercent, restoreSeconds, System::nanoTime);
+
+        if (degradePercent > 0) {
+            this.checker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "quality-governor");
+                t.setDaemon(true);
+                return t;
+            });
+            this.checker.scheduleAtFixedRate(
+                this::check,
+                PERIOD_MILLIS,
+                PERIOD_MILLIS,
+                TimeUnit.MILLISECONDS
+            );
+        }
+    }
+
+    /**
+     * Construct a new governor which only checks the load when {@link #check()} is called
+     *
+     * @param threads the number of render threads sharing the load
+     * @param degradePercent the load percentage above which quality steps down
+     * @param restorePercent the load percentage below which quality may step back up
+     * @param restoreSeconds how long load must stay low before quality steps back up
+     * @param clock the clock to measure load against, in nanoseconds
+     */
+    QualityGovernor(
+        int threads,
+        int degradePercent,
+        int restorePercent,
+        long restoreSeconds,
+        LongSupplier clock
+    ) {
+        this.busyNanos = new LongAdder();
+        this.clock = clock;
+        this.threads = threads;
+        this.degradePercent = degradePercent;
+        this.restorePercent = Math.min(restorePercent, degradePercent);
+        this.restoreChecks = (int) Math.max(
+            TimeUnit.SECONDS.toMillis(restoreSeconds) / PERIOD_MILLIS,
+            1
+        );
+        this.level = Level.FULL;
+        this.lastCheck = clock.getAsLong();
+    }
+
+    /**
+     * Count time spent rendering frames
+     *
+     * @param nanos the time spent rendering, in nanoseconds
+     */
+    public void record(long nanos) {
+        this.busyNanos.add(nanos);
+    }
+
+    /** Get how voice senders should resample emulator output right now */
+    public SamplingMethod sampling() {
+        return this.level.sampling;
+    }
+
+    /** Get the current quality level */
+    public Level level() {
+        return this.level;
+    }
+
+    /**
+     * Check whether or not a new tune may be emulated, counting it if not
+     *
+     * @return false if new tunes are being shed
+     */
+    public boolean admit() {
+        if (this.level == Level.SHEDDING) {
+            SHED.inc();
+            return false;
+        }
+        return true;
+    }
+
+    /** Work out the load since the last check, and step quality up or down */
+    void check() {
+        long now = this.clock.getAsLong();
+        long elapsed = Math.max(now - this.lastCheck, 1);
+        this.lastCheck = now;
+        long percent = this.busyNanos.sumThenReset() * 100 / (elapsed * this.threads);
+        LOAD.set(percent);
+
+        // Count how long the load has been high or low
+        this.overloaded = percent > this.degradePercent ? this.overloaded + 1 : 0;
+        this.relaxed = percent < this.restorePercent ? this.relaxed + 1 : 0;
+
+        Level[] levels = Level.values();
+        int current = this.level.ordinal();
+        if (this.overloaded >= DEGRADE_CHECKS && current < levels.length - 1) {
+            this.step(levels[current + 1], percent);
+            DEGRADED.inc();
+        } else if (this.relaxed >= this.restoreChecks && current > 0) {
+            this.step(levels[current - 1], percent);
+            RESTORED.inc();
+        }
+    }
+
+    /**
+     * Switch to a different quality level
+     *
+     * @param next the level to switch to
+     * @param percent the load which prompted the switch
+     */
+    private void step(Level next, long percent) {
+        LOG.info("Render load at {}%, switching to {} quality", percent, next);
+        this.level = next;
+        LEVEL.set(next.ordinal());
+        this.overloaded = 0;
+        this.relaxed = 0;
+    }
+
+    /** Stop checking the load */
+    @Override
+    public void close() {
+        if (this.checker != null) {
+            this.checker.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package net.rastertail.overvoltage;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed pool of render threads shared between all voice senders and stations
+ *
+ * Tasks are rendered ahead of playback: each one is woken shortly before its
+ * buffered audio runs out, topped up, and put back to sleep. When several tasks
+ * are due at once, the one closest to underrun is serviced first.
+ */
+public class RenderScheduler {
+    /** Logger for this class */
+    private final Logger LOG = LoggerFactory.getLogger(RenderScheduler.class);
+
+    /** Render threads which are still running */
+    private static final Metrics.Gauge THREADS = Metrics.gauge(
+        "overvoltage_render_threads",
+        "Render threads which are still running"
+    );
+
+    /** Exceptions thrown out of render tasks */
+    private static final Metrics.Counter ERRORS = Metrics.counter(
+        "overvoltage_render_errors_total",
+        "Uncaught exceptions thrown by render tasks"
+    );
+
+    /** How long a task is held off after its first failure, doubling with every one after */
+    private static final long BACKOFF_NANOS = 50_000_000L;
+
+    /** The longest a failing task is held off for */
+    private static final long MAX_BACKOFF_NANOS = 5_000_000_000L;
+
+    /** Tasks waiting to be serviced, earliest deadline first */
+    private DelayQueue<RenderTask> queue;
+
+    /** Tasks expedited while being serviced, to be woken once they are queued again */
+    private Set<RenderTask> woken;
+
+    /** Consecutive failures of tasks whose last service threw */
+    private ConcurrentHashMap<RenderTask, Integer> failures;
+
+    /** The render worker threads */
+    private Thread[] workers;
+
+    /** Whether or not this scheduler has been shut down */
+    private volatile boolean closed;
+
+    /**
+     * Construct and start a new render scheduler
+     *
+     * @param threads the number of render threads to run
+     */
+    public RenderScheduler(int threads) {
+        this.queue = new DelayQueue<RenderTask>();
+        this.woken = ConcurrentHashMap.<RenderTask>newKeySet();
+        this.failures = new ConcurrentHashMap<RenderTask, Integer>();
+
+        // Start render threads
+        Metrics.gauge("overvoltage_render_tasks", "Tasks on the render scheduler", this::size);
+        THREADS.add(threads);
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            this.workers[i] = new Thread(this::run, "render-" + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+
+        LOG.info("Started {} render threads", threads);
+    }
+
+    /** Construct and start a new render scheduler with one thread per core */
+    public RenderScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Start keeping a task's audio topped up
+     *
+     * @param task the task to render for
+     */
+    public void submit(RenderTask task) {
+        this.queue.add(task);
+    }
+
+    /**
+     * Wake a sleeping task immediately, e.g. because it has new actions to run
+     *
+     * If the task is currently being serviced, it is flagged instead and woken as soon
+     * as its render thread puts it back, since it may already have looked for pending
+     * work.
+     *
+     * @param task the task to wake
+     */
+    public void expedite(RenderTask task) {
+        this.woken.add(task);
+        this.wakeQueued(task);
+    }
+
+    /** Get the number of render threads */
+    public int threads() {
+        return this.workers.length;
+    }
+
+    /** Get the number of tasks waiting to be serviced, not counting ones being serviced */
+    public long size() {
+        return this.queue.size();
+    }
+
+    /** Stop all render threads, waiting for them to finish their current task */
+    public void close() throws InterruptedException {
+        this.closed = true;
+        for (Thread worker : this.workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : this.workers) {
+            worker.join();
+        }
+        this.queue.clear();
+    }
+
+    /** Run a render thread until the scheduler is closed */
+    private void run() {
+        try {
+            while (!this.closed) {
+                RenderTask task = this.queue.take();
+
+                // Any wake-up requested so far is answered by this very service
+                this.woken.remove(task);
+                try {
+                    task.service();
+                    if (!this.failures.isEmpty()) {
+                        this.failures.remove(task);
+                    }
+                } catch (InterruptedException e) {
+                    // Leave the task to the other threads, unless we are shutting down
+                    if (!this.closed) {
+                        this.queue.add(task);
+                        this.wakeQueued(task);
+                    }
+                    throw e;
+                } catch (Exception e) {
+                    // A misbehaving task must not take the worker down with it, nor keep
+                    // it spinning on a deadline which is already overdue
+                    ERRORS.inc();
+                    int failed = this.failures.merge(task, 1, Integer::sum);
+                    long backoff = Math.min(
+                        BACKOFF_NANOS << Math.min(failed - 1, 16),
+                        MAX_BACKOFF_NANOS
+                    );
+                    task.postpone(backoff);
+                    LOG.error(
+                        "Uncaught exception in render thread, {} in a row, retrying in {} ms: {}",
+                        failed,
+                        backoff / 1_000_000,
+                        e
+                    );
+                }
+
+                // Put the task back to sleep until it next needs topping up, then wake it
+                // again if it was expedited in the meantime
+                if (!task.finished()) {
+                    this.queue.add(task);
+                    this.wakeQueued(task);
+                } else {
+                    this.woken.remove(task);
+                    this.failures.remove(task);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Warn on exceptions, unless we are shutting down
+            if (!this.closed) {
+                LOG.warn("Render thread died! {}", e);
+            }
+        } finally {
+            THREADS.add(-1);
+        }
+    }
+
+    /**
+     * Wake a task if it was flagged for waking and is currently queued
+     *
+     * The flag is set before the queue is checked, and a render thread checks it only
+     * after queueing its task, so at least one of the two always sees the other's work.
+     *
+     * @param task the task to wake
+     */
+    private void wakeQueued(RenderTask task) {
+        if (this.woken.contains(task) && this.queue.remove(task)) {
+            this.woken.remove(task);
+            task.wake();
+            this.queue.add(task);
+        }
+    }
+}
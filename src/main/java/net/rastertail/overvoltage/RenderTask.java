@@ -0,0 +1,58 @@
+package net.rastertail.overvoltage;
+
+import java.util.concurrent.Delayed;
+
+/**
+ * Something kept rendered ahead of playback by a {@link RenderScheduler}
+ *
+ * Tasks are ordered by deadline, so the one closest to running out of audio is
+ * serviced first.
+ */
+public interface RenderTask extends Delayed {
+    /**
+     * Get the time at which this task runs out of rendered audio
+     *
+     * @return the deadline in {@link System#nanoTime()} units
+     */
+    long deadline();
+
+    /**
+     * Mark this task as due for rendering right away
+     *
+     * Must only be called while the task is not queued on the scheduler.
+     */
+    void wake();
+
+    /**
+     * Hold off servicing this task for a while, e.g. because servicing it just failed
+     *
+     * Must only be called while the task is not queued on the scheduler.
+     *
+     * @param nanos how long to wait before servicing this task again
+     */
+    void postpone(long nanos);
+
+    /**
+     * Run pending work and top up rendered audio
+     *
+     * Only ever called from a render thread, and never concurrently for one task.
+     */
+    void service() throws InterruptedException;
+
+    /**
+     * Get if this task is done for good and should no longer be scheduled
+     *
+     * Once this returns true it must keep returning true.
+     */
+    boolean finished();
+
+    /**
+     * Order tasks by deadline
+     *
+     * @param other the delayed item to compare against
+     */
+    @Override
+    default int compareTo(Delayed other) {
+        return Long.compare(this.deadline(), ((RenderTask) other).deadline());
+    }
+}
@@ -0,0 +1,242 @@
+package net.rastertail.overvoltage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+
+/**
+ * A bounded LRU cache of search results
+ *
+ * Identical queries running at the same time are coalesced, so only one of them
+ * actually hits the index while the rest wait for its result.
+ */
+public class SearchCache {
+    /** A search to run on a cache miss */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Run a search
+         *
+         * @param query the normalized query
+         *
+         * @return the search results
+         *
+         * @throws IOException if the search index is inaccessible
+         * @throws QueryNodeException if the query is malformed
+         */
+        ArrayList<SidDatabase.SidInfo> load(String query) throws IOException, QueryNodeException;
+    }
+
+    /** Query syntax keywords which must keep their case */
+    private static final String[] KEYWORDS = {"AND", "OR", "NOT", "TO"};
+
+    /** Cached results keyed by normalized query, in access order */
+    private LinkedHashMap<String, ArrayList<SidDatabase.SidInfo>> entries;
+
+    /** Searches currently running, keyed by normalized query */
+    private ConcurrentHashMap<String, CompletableFuture<ArrayList<SidDatabase.SidInfo>>> inFlight;
+
+    /** Incremented on every invalidation so stale searches are not cached */
+    private long generation;
+
+    /** Number of lookups answered from the cache */
+    private LongAdder hits;
+
+    /** Number of lookups which were not in the cache */
+    private LongAdder misses;
+
+    /** Number of misses which joined an identical search already running */
+    private LongAdder coalesced;
+
+    /** Number of entries dropped to stay within the size bound */
+    private LongAdder evictions;
+
+    /**
+     * Construct a new search cache
+     *
+     * @param maxSize the maximum number of queries to cache
+     */
+    public SearchCache(int maxSize) {
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.coalesced = new LongAdder();
+        this.evictions = new LongAdder();
+        this.inFlight
+            = new ConcurrentHashMap<String, CompletableFuture<ArrayList<SidDatabase.SidInfo>>>();
+        this.entries = new LinkedHashMap<String, ArrayList<SidDatabase.SidInfo>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, ArrayList<SidDatabase.SidInfo>> eldest
+            ) {
+                if (this.size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Normalize a query so trivially different spellings share a cache entry
+     *
+     * Collapses whitespace and lower-cases everything except query syntax keywords.
+     *
+     * @param query the raw query
+     *
+     * @return the normalized query
+     */
+    public static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder();
+        for (String token : query.trim().split("\\s+")) {
+            if (normalized.length() > 0) {
+                normalized.append(' ');
+            }
+
+            boolean keyword = false;
+            for (String k : KEYWORDS) {
+                keyword |= k.equals(token);
+            }
+            normalized.append(keyword ? token : token.toLowerCase(Locale.ROOT));
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Get cached results for a query, running the search if needed
+     *
+     * @param query the normalized query
+     * @param loader the search to run on a cache miss
+     *
+     * @return a fresh copy of the results
+     *
+     * @throws IOException if the search index is inaccessible
+     * @throws QueryNodeException if the query is malformed
+     */
+    public ArrayList<SidDatabase.SidInfo> get(
+        String query,
+        Loader loader
+    ) throws IOException, QueryNodeException {
+        // Check the cache itself
+        long gen;
+        synchronized (this) {
+            ArrayList<SidDatabase.SidInfo> cached = this.entries.get(query);
+            if (cached != null) {
+                this.hits.increment();
+                return new ArrayList<SidDatabase.SidInfo>(cached);
+            }
+            gen = this.generation;
+        }
+        this.misses.increment();
+
+        // Join an identical search if one is already running
+        CompletableFuture<ArrayList<SidDatabase.SidInfo>> mine
+            = new CompletableFuture<ArrayList<SidDatabase.SidInfo>>();
+        CompletableFuture<ArrayList<SidDatabase.SidInfo>> running
+            = this.inFlight.putIfAbsent(query, mine);
+        if (running != null) {
+            this.coalesced.increment();
+            return new ArrayList<SidDatabase.SidInfo>(await(running));
+        }
+
+        // Otherwise run the search ourselves
+        try {
+            ArrayList<SidDatabase.SidInfo> results = loader.load(query);
+            synchronized (this) {
+                if (this.generation == gen) {
+                    this.entries.put(query, results);
+                }
+            }
+            mine.complete(results);
+            return new ArrayList<SidDatabase.SidInfo>(results);
+        } catch (Throwable e) {
+            // Fail any searches waiting on this one too, even on errors, or they would
+            // wait forever
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(query, mine);
+        }
+    }
+
+    /** Drop all cached results, e.g. because the index changed */
+    public synchronized void invalidate() {
+        this.generation++;
+        this.entries.clear();
+        this.inFlight.clear();
+    }
+
+    /** Get the number of lookups answered from the cache */
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    /** Get the number of lookups which were not in the cache */
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    /** Get the number of misses which joined an identical running search */
+    public long coalesced() {
+        return this.coalesced.sum();
+    }
+
+    /** Get the number of entries evicted to stay within the size bound */
+    public long evictions() {
+        return this.evictions.sum();
+    }
+
+    /** Get the fraction of lookups answered from the cache */
+    public double hitRate() {
+        long hits = this.hits();
+        long total = hits + this.misses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /** Get the number of cached queries */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Wait for a search run by another thread
+     *
+     * @param running the running search
+     *
+     * @return its results
+     *
+     * @throws IOException if the search index is inaccessible
+     * @throws QueryNodeException if the query is malformed
+     */
+    private static ArrayList<SidDatabase.SidInfo> await(
+        CompletableFuture<ArrayList<SidDatabase.SidInfo>> running
+    ) throws IOException, QueryNodeException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for search");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof QueryNodeException) {
+                throw (QueryNodeException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Search failed", cause);
+        }
+    }
+}
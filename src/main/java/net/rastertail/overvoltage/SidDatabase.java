@@ -4,7 +4,18 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import libsidplay.sidtune.SidTune;
@@ -13,16 +24,33 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,18 +71,51 @@ public class SidDatabase {
         public Path path;
 
         /**
-         * Retrieve SID tune info from a search document
+         * Retrieve SID tune info from the doc values of a search hit
          *
-         * @param doc the document to get info from
+         * @param reader the index segment containing the hit
+         * @param doc the segment-relative document ID of the hit
+         *
+         * @throws IOException if the index is inaccessible
          */
-        public SidInfo(Document doc) {
-            this.title = doc.get(TITLE_FIELD);
-            this.artist = doc.get(ARTIST_FIELD);
-            this.released = doc.get(RELEASED_FIELD);
-            this.path = Paths.get(doc.get(PATH_FIELD));
+        public SidInfo(LeafReader reader, int doc) throws IOException {
+            this.title = lookup(reader, TITLE_FIELD, doc);
+            this.artist = lookup(reader, ARTIST_FIELD, doc);
+            this.released = lookup(reader, RELEASED_FIELD, doc);
+            this.path = Paths.get(lookup(reader, PATH_FIELD, doc));
         }
     }
     
+    /** Tunables for building the search index */
+    public static class Options {
+        /** Number of threads to parse tunes with while indexing */
+        public int indexThreads = Runtime.getRuntime().availableProcessors();
+
+        /** Size of the index writer's RAM buffer in megabytes */
+        public double ramBufferMb = 256.0;
+
+        /** Number of similarly sized segments allowed per merge tier */
+        public double segmentsPerTier = 10.0;
+
+        /** Maximum number of concurrent segment merges */
+        public int maxMergeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        /** File recording what the index was built from, or null to disable incremental updates */
+        public Path manifestPath = null;
+
+        /** How often to check for index changes in seconds, or 0 to disable */
+        public long refreshSeconds = 60;
+
+        /** Maximum number of queries to cache results for */
+        public int cacheSize = 1024;
+
+        /** The HVSC song length database, or null if unavailable */
+        public SongLengths songLengths = null;
+
+        /** Length to assume for songs missing from the song length database, or 0 for none */
+        public int defaultSongSeconds = 0;
+    }
+
     /** Logger for this class */
     private final Logger LOG = LoggerFactory.getLogger(SidDatabase.class);
     
@@ -70,23 +131,71 @@ public class SidDatabase {
     /** Field ID for tune path within the HVSC */
     private static final String PATH_FIELD = "path";
 
+    /** Commit user data key for the index schema version */
+    private static final String SCHEMA_KEY = "schema";
+
+    /** Version of the index schema, bumped whenever documents change shape */
+    private static final String SCHEMA_VERSION = "2";
+
     /** Threshold for relevant results */
     private static final float RELEVANCY_THRESH = 1.5f;
 
+    /** How many tunes to index between progress messages */
+    private static final int PROGRESS_INTERVAL = 5000;
+
+    /** Wall clock time taken by each search */
+    private static final Metrics.Histogram SEARCH_NANOS = Metrics.histogram(
+        "overvoltage_search_seconds",
+        "Time taken by each search, including cache hits",
+        1e-9,
+        100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000, 25_000_000,
+        50_000_000, 100_000_000, 250_000_000
+    );
+
+    /** Tunes checked for changes while indexing */
+    private static final Metrics.Counter TUNES_SCANNED = Metrics.counter(
+        "overvoltage_index_tunes_scanned_total",
+        "Tunes checked for changes while indexing"
+    );
+
+    /** Tunes parsed and added to the index */
+    private static final Metrics.Counter TUNES_INDEXED = Metrics.counter(
+        "overvoltage_index_tunes_indexed_total",
+        "Tunes parsed and added to the index"
+    );
+
+    /** Throughput of the most recent indexing run */
+    private static final Metrics.Gauge INDEX_RATE = Metrics.gauge(
+        "overvoltage_index_tunes_per_second",
+        "Tunes scanned per second by the most recent indexing run"
+    );
+
     /** The base path under which all SID tunes are located */
     private Path basePath;
 
     /** The Lucene analyzer used for this database */
     private Analyzer analyzer;
 
-    /** The reader over the search index directory */
-    private DirectoryReader indexReader;
+    /** Manager handing out up to date searchers over the index */
+    private SearcherManager searcherManager;
 
-    /** The search index searcher */
-    private IndexSearcher searcher;
+    /** Per-thread search query parsers, as they are not thread-safe */
+    private ThreadLocal<StandardQueryParser> queryParser;
 
-    /** The search query parser */
-    private StandardQueryParser queryParser;
+    /** Cache of recent search results */
+    private SearchCache cache;
+
+    /** Autocomplete suggester over the current index */
+    private volatile TuneSuggester suggester;
+
+    /** Background task which picks up index changes, if enabled */
+    private ScheduledExecutorService refresher;
+
+    /** The HVSC song length database, or null if unavailable */
+    private SongLengths songLengths;
+
+    /** Length to assume for unknown songs in seconds, or 0 for none */
+    private int defaultSongSeconds;
 
     /**
      * Construct a new SID tune database, 
@@ -94,62 +203,481 @@ public class SidDatabase {
      * @param basePath the path to load tunes from
      * @param indexDir the search index directory
      * @param reindex whether or not to force reindexing
+     * @param options tunables for building the index
      *
      * @throws IOException if loading the index fails
      */
-    public SidDatabase(Path basePath, Directory indexDir, boolean reindex) throws IOException {
+    public SidDatabase(
+        Path basePath,
+        Directory indexDir,
+        boolean reindex,
+        Options options
+    ) throws IOException {
         // Base setup
         this.basePath = basePath;
+        this.songLengths = options.songLengths;
+        this.defaultSongSeconds = options.defaultSongSeconds;
         this.analyzer = new StandardAnalyzer();
         
-        // Build an index if one does not already exist
+        // Build an index if one does not already exist, otherwise bring it up to date
+        // if we know what it was built from
         if (!DirectoryReader.indexExists(indexDir) || reindex) {
-            LOG.info("Indexing SID tunes...");
-
-            // Create index writer
-            IndexWriterConfig config = new IndexWriterConfig(this.analyzer);
-            IndexWriter writer = new IndexWriter(indexDir, config);
-
-            // Index all tunes within base directory
-            Files.walk(basePath)
-                .filter(Files::isRegularFile)
-                .forEach(path -> {
-                    try {
-                        // Load SID tune and extract metadata
-                        SidTune tune = SidTune.load(path.toFile());
-                        String[] info = tune
-                            .getInfo()
-                            .getInfoString()
-                            .toArray(new String[] {});
-
-                        // Resolve relative HVSC path
-                        Path hvscPath = basePath.relativize(path);
-
-                        // Create and insert Lucene document
-                        Document doc = new Document();
-                        doc.add(new Field(TITLE_FIELD, info[0], TextField.TYPE_STORED));
-                        doc.add(new Field(ARTIST_FIELD, info[1], TextField.TYPE_STORED));
-                        doc.add(new Field(RELEASED_FIELD, info[2], TextField.TYPE_STORED));
-                        doc.add(new Field(PATH_FIELD, hvscPath.toString(), TextField.TYPE_STORED));
-
-                        writer.addDocument(doc);
-                    } catch (Exception e) {
-                        LOG.warn("Failed to index SID at path {}: {}", path, e);
+            this.updateIndex(indexDir, options, null);
+        } else if (!SCHEMA_VERSION.equals(schemaVersion(indexDir))) {
+            LOG.info("Index schema is out of date, rebuilding index");
+            this.updateIndex(indexDir, options, null);
+        } else if (options.manifestPath != null) {
+            Manifest previous = Manifest.load(options.manifestPath);
+            if (previous == null) {
+                LOG.info("No usable index manifest found, rebuilding index");
+            }
+            this.updateIndex(indexDir, options, previous);
+        }
+
+        // Initialize searcher manager, dropping cached results whenever it sees changes
+        this.cache = new SearchCache(options.cacheSize);
+        Metrics.counter(
+            "overvoltage_search_cache_hits_total",
+            "Searches answered from the result cache",
+            this.cache::hits
+        );
+        Metrics.counter(
+            "overvoltage_search_cache_misses_total",
+            "Searches which were not in the result cache",
+            this.cache::misses
+        );
+        Metrics.counter(
+            "overvoltage_search_cache_coalesced_total",
+            "Searches which joined an identical search already running",
+            this.cache::coalesced
+        );
+        Metrics.counter(
+            "overvoltage_search_cache_evictions_total",
+            "Cached results dropped to stay within the size bound",
+            this.cache::evictions
+        );
+        Metrics.gauge(
+            "overvoltage_search_cache_hit_percent",
+            "Percentage of searches answered from the result cache",
+            () -> Math.round(this.cache.hitRate() * 100)
+        );
+        Metrics.gauge(
+            "overvoltage_search_cache_entries",
+            "Queries in the result cache",
+            this.cache::size
+        );
+        this.searcherManager = new SearcherManager(indexDir, null);
+        this.searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {}
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    cache.invalidate();
+                    buildSuggester();
+                }
+            }
+        });
+        this.buildSuggester();
+
+        // Periodically pick up index changes in the background
+        if (options.refreshSeconds > 0) {
+            this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "index-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            this.refresher.scheduleWithFixedDelay(
+                this::refresh,
+                options.refreshSeconds,
+                options.refreshSeconds,
+                TimeUnit.SECONDS
+            );
+        }
+
+        // Initialize query parsers
+        this.queryParser = ThreadLocal.withInitial(() -> {
+            StandardQueryParser parser = new StandardQueryParser();
+            parser.setAnalyzer(this.analyzer);
+            return parser;
+        });
+
+        LOG.info("SID database initialized");
+    }
+
+    /** Pick up any committed changes to the index for future searches */
+    public void refresh() {
+        try {
+            this.searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            LOG.warn("Failed to refresh search index: {}", e);
+        }
+    }
+
+    /**
+     * Suggest tunes for autocompletion
+     *
+     * @param prefix the text typed so far
+     * @param count the maximum number of suggestions
+     *
+     * @return the suggestions, best first
+     *
+     * @throws IOException if the lookup fails
+     */
+    public List<TuneSuggester.Suggestion> suggest(String prefix, int count) throws IOException {
+        TuneSuggester suggester = this.suggester;
+        if (suggester == null) {
+            return new ArrayList<TuneSuggester.Suggestion>();
+        }
+        return suggester.suggest(prefix, count);
+    }
+
+    /**
+     * Pick a random tune from the database
+     *
+     * @return a random tune, or null if the database is empty
+     *
+     * @throws IOException if the search index is inaccessible
+     */
+    public SidInfo random() throws IOException {
+        IndexSearcher searcher = this.searcherManager.acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            if (reader.numDocs() == 0) {
+                return null;
+            }
+
+            // Probe random documents until we hit one that is not deleted
+            List<LeafReaderContext> leaves = reader.leaves();
+            while (true) {
+                int doc = ThreadLocalRandom.current().nextInt(reader.maxDoc());
+                LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                if (liveDocs == null || liveDocs.get(doc - leaf.docBase)) {
+                    return new SidInfo(leaf.reader(), doc - leaf.docBase);
+                }
+            }
+        } finally {
+            this.searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Look up a tune by its exact HVSC path
+     *
+     * @param path the HVSC path
+     *
+     * @return the tune's info, or null if it is not in the index
+     *
+     * @throws IOException if the search index is inaccessible
+     */
+    public SidInfo find(String path) throws IOException {
+        IndexSearcher searcher = this.searcherManager.acquire();
+        try {
+            Query q = new TermQuery(new Term(PATH_FIELD, path));
+            ScoreDoc[] hits = searcher.search(q, 1).scoreDocs;
+            if (hits.length == 0) {
+                return null;
+            }
+
+            List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(hits[0].doc, leaves));
+            return new SidInfo(leaf.reader(), hits[0].doc - leaf.docBase);
+        } finally {
+            this.searcherManager.release(searcher);
+        }
+    }
+
+    /** Rebuild the autocomplete suggester from the current index */
+    private void buildSuggester() {
+        long start = System.nanoTime();
+        try {
+            IndexSearcher searcher = this.searcherManager.acquire();
+            try {
+                this.suggester = TuneSuggester.build(
+                    searcher.getIndexReader(),
+                    this.analyzer,
+                    TITLE_FIELD,
+                    ARTIST_FIELD,
+                    PATH_FIELD
+                );
+            } finally {
+                this.searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to build suggester: {}", e);
+            return;
+        }
+
+        LOG.info(
+            "Built suggester in {}s ({} KiB)",
+            String.format("%.1f", secondsSince(start)),
+            this.suggester.ramBytesUsed() / 1024
+        );
+    }
+
+    /**
+     * Stop background refreshes and release the index
+     *
+     * @throws IOException if closing the index fails
+     */
+    public void close() throws IOException {
+        if (this.refresher != null) {
+            this.refresher.shutdownNow();
+        }
+        this.searcherManager.close();
+    }
+
+    /**
+     * Bring the search index up to date with the tunes on disk, parsing tunes in parallel
+     *
+     * With a previous manifest, only tunes whose contents changed are reindexed and
+     * tunes which disappeared are deleted. Without one, the index is rebuilt from scratch.
+     *
+     * @param indexDir the search index directory
+     * @param options tunables for building the index
+     * @param previous the manifest the existing index was built from, or null
+     *
+     * @throws IOException if writing the index fails
+     */
+    private void updateIndex(
+        Directory indexDir,
+        Options options,
+        Manifest previous
+    ) throws IOException {
+        boolean incremental = previous != null;
+        LOG.info(
+            "{} SID tunes with {} threads...",
+            incremental ? "Updating index of" : "Indexing",
+            options.indexThreads
+        );
+        long start = System.nanoTime();
+
+        // Find all tunes within base directory
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(this.basePath)) {
+            paths = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        // Create index writer
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(options.segmentsPerTier);
+
+        ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+        mergeScheduler.setMaxMergesAndThreads(
+            options.maxMergeThreads + 5,
+            options.maxMergeThreads
+        );
+
+        IndexWriterConfig config = new IndexWriterConfig(this.analyzer)
+            .setOpenMode(incremental
+                ? IndexWriterConfig.OpenMode.APPEND
+                : IndexWriterConfig.OpenMode.CREATE)
+            .setRAMBufferSizeMB(options.ramBufferMb)
+            .setMergePolicy(mergePolicy)
+            .setMergeScheduler(mergeScheduler);
+
+        // Parse and add tunes on a bounded pool; the index writer is thread-safe
+        Manifest current = new Manifest();
+        AtomicInteger scanned = new AtomicInteger(0);
+        AtomicInteger indexed = new AtomicInteger(0);
+        int deleted = 0;
+        ForkJoinPool pool = new ForkJoinPool(options.indexThreads);
+        try (IndexWriter writer = new IndexWriter(indexDir, config)) {
+            pool.submit(() -> paths.parallelStream().forEach(path -> {
+                if (this.scanTune(writer, path, previous, current)) {
+                    indexed.incrementAndGet();
+                    TUNES_INDEXED.inc();
+                }
+
+                int count = scanned.incrementAndGet();
+                TUNES_SCANNED.inc();
+                if (count % PROGRESS_INTERVAL == 0) {
+                    LOG.info(
+                        "Scanned {}/{} tunes ({} tunes/s)",
+                        count,
+                        paths.size(),
+                        String.format("%.0f", count / secondsSince(start))
+                    );
+                }
+            })).get();
+
+            // Delete tunes which no longer exist
+            if (incremental) {
+                for (String path : previous.paths()) {
+                    if (current.get(path) == null) {
+                        writer.deleteDocuments(new Term(PATH_FIELD, path));
+                        deleted++;
                     }
-                });
+                }
+            }
 
-            writer.close();
+            // Record which schema this index was built with
+            writer.setLiveCommitData(Map.of(SCHEMA_KEY, SCHEMA_VERSION).entrySet());
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Indexing failed", e);
+        } finally {
+            pool.shutdown();
         }
 
-        // Initialize reader
-        this.indexReader = DirectoryReader.open(indexDir);
-        this.searcher = new IndexSearcher(this.indexReader);
+        // Only record the manifest once the index is committed
+        if (options.manifestPath != null) {
+            current.save(options.manifestPath);
+        }
 
-        // Initialize query parser
-        this.queryParser = new StandardQueryParser();
-        this.queryParser.setAnalyzer(this.analyzer);
+        INDEX_RATE.set(Math.round(scanned.get() / secondsSince(start)));
+        LOG.info(
+            "Indexed {} tunes and deleted {} in {}s ({} tunes/s)",
+            indexed.get(),
+            deleted,
+            String.format("%.1f", secondsSince(start)),
+            String.format("%.0f", scanned.get() / secondsSince(start))
+        );
+    }
 
-        LOG.info("SID database initialized");
+    /**
+     * Check a single tune against the previous manifest and (re)index it if it changed
+     *
+     * @param writer the index writer to add to
+     * @param path the absolute path of the tune
+     * @param previous the previous manifest, or null if building from scratch
+     * @param current the manifest being built
+     *
+     * @return whether or not the tune was indexed
+     */
+    private boolean scanTune(IndexWriter writer, Path path, Manifest previous, Manifest current) {
+        String hvscPath = this.basePath.relativize(path).toString();
+
+        try {
+            // Skip hashing if size and modification time are unchanged
+            Manifest.Entry old = previous != null ? previous.get(hvscPath) : null;
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (old != null && old.matches(attrs)) {
+                current.put(hvscPath, old);
+                return false;
+            }
+
+            // Skip reindexing if the contents are unchanged
+            Manifest.Entry entry = Manifest.Entry.of(path, attrs);
+            current.put(hvscPath, entry);
+            if (old != null && old.md5.equals(entry.md5)) {
+                return false;
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to scan SID at path {}: {}", path, e);
+            return false;
+        }
+
+        return this.indexTune(writer, path, hvscPath, previous != null);
+    }
+
+    /**
+     * Parse a single tune and add it to the index
+     *
+     * @param writer the index writer to add to
+     * @param path the absolute path of the tune
+     * @param hvscPath the tune's path relative to the HVSC root
+     * @param replace whether or not to replace an existing document for this tune
+     *
+     * @return whether or not the tune was indexed
+     */
+    private boolean indexTune(IndexWriter writer, Path path, String hvscPath, boolean replace) {
+        try {
+            // Load SID tune and extract metadata
+            SidTune tune = SidTune.load(path.toFile());
+            String[] info = tune
+                .getInfo()
+                .getInfoString()
+                .toArray(new String[] {});
+
+            // Create and insert Lucene document; display values live in doc values
+            // rather than stored fields so results never touch the stored field blocks
+            Document doc = new Document();
+            addDisplayField(doc, TITLE_FIELD, info[0], true);
+            addDisplayField(doc, ARTIST_FIELD, info[1], true);
+            addDisplayField(doc, RELEASED_FIELD, info[2], true);
+            addDisplayField(doc, PATH_FIELD, hvscPath, false);
+
+            if (replace) {
+                writer.updateDocument(new Term(PATH_FIELD, hvscPath), doc);
+            } else {
+                writer.addDocument(doc);
+            }
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Failed to index SID at path {}: {}", path, e);
+
+            // Make sure a stale version of the tune does not linger
+            if (replace) {
+                try {
+                    writer.deleteDocuments(new Term(PATH_FIELD, hvscPath));
+                } catch (IOException ex) {
+                    LOG.warn("Failed to delete SID at path {}: {}", path, ex);
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Add a searchable field whose value can be read back from doc values
+     *
+     * @param doc the document to add to
+     * @param name the field name
+     * @param value the field value
+     * @param analyzed whether to index the value as full text or as a single keyword
+     */
+    private static void addDisplayField(Document doc, String name, String value, boolean analyzed) {
+        if (analyzed) {
+            doc.add(new TextField(name, value, Field.Store.NO));
+        } else {
+            doc.add(new StringField(name, value, Field.Store.NO));
+        }
+        doc.add(new SortedDocValuesField(name, new BytesRef(value)));
+    }
+
+    /**
+     * Read a display value back from doc values
+     *
+     * @param reader the index segment containing the document
+     * @param field the field name
+     * @param doc the segment-relative document ID
+     *
+     * @return the value, or an empty string if the document has none
+     *
+     * @throws IOException if the index is inaccessible
+     */
+    private static String lookup(LeafReader reader, String field, int doc) throws IOException {
+        SortedDocValues values = DocValues.getSorted(reader, field);
+        if (!values.advanceExact(doc)) {
+            return "";
+        }
+        return values.lookupOrd(values.ordValue()).utf8ToString();
+    }
+
+    /**
+     * Get the schema version an existing index was built with
+     *
+     * @param indexDir the search index directory
+     *
+     * @return the schema version, or null if it was not recorded
+     *
+     * @throws IOException if the index is inaccessible
+     */
+    private static String schemaVersion(Directory indexDir) throws IOException {
+        return SegmentInfos.readLatestCommit(indexDir).getUserData().get(SCHEMA_KEY);
+    }
+
+    /**
+     * Get the number of seconds elapsed since a point in time
+     *
+     * @param start the point in time in {@link System#nanoTime()} units
+     *
+     * @return the elapsed seconds
+     */
+    private static double secondsSince(long start) {
+        return Math.max(System.nanoTime() - start, 1) / 1e9;
     }
 
     /**
@@ -164,27 +692,61 @@ public class SidDatabase {
      */
     public ArrayList<SidInfo> search(String query) throws IOException, QueryNodeException {
         LOG.debug("Searching for `{}`", query);
+        long start = System.nanoTime();
+        try {
+            return this.cache.get(SearchCache.normalize(query), this::searchIndex);
+        } finally {
+            SEARCH_NANOS.record(System.nanoTime() - start);
+        }
+    }
 
+    /**
+     * Get the cache of recent search results
+     *
+     * @return the search cache
+     */
+    public SearchCache cache() {
+        return this.cache;
+    }
+
+    /**
+     * Query the search index directly, bypassing the cache
+     *
+     * @param query the query string in Lucene query language
+     *
+     * @throws IOException if the search index is inaccessible
+     * @throws QueryNodeException if the query is malformed
+     *
+     * @return a list of relevant results
+     */
+    private ArrayList<SidInfo> searchIndex(String query) throws IOException, QueryNodeException {
         // Construct query
-        Query q = this.queryParser.parse(query, TITLE_FIELD);
-        
-        // Perform search
-        ScoreDoc[] hits = this.searcher.search(q, 10).scoreDocs;
-
-        // Aggregate relevant results, cutting off any documents with a score less than
-        // the top score minus a relevancy threshold defined above
-        ArrayList<SidInfo> relevant = new ArrayList<SidInfo>();
-        if (hits.length > 0) {
-            float topScore = hits[0].score;
-            for (ScoreDoc score_doc : hits) {
-                if (score_doc.score > topScore - RELEVANCY_THRESH) {
-                    Document doc = this.searcher.doc(score_doc.doc);
-                    relevant.add(new SidInfo(doc));
+        Query q = this.queryParser.get().parse(query, TITLE_FIELD);
+
+        // Perform search against the current point-in-time view of the index
+        IndexSearcher searcher = this.searcherManager.acquire();
+        try {
+            ScoreDoc[] hits = searcher.search(q, 10).scoreDocs;
+
+            // Aggregate relevant results, cutting off any documents with a score less than
+            // the top score minus a relevancy threshold defined above
+            ArrayList<SidInfo> relevant = new ArrayList<SidInfo>();
+            if (hits.length > 0) {
+                float topScore = hits[0].score;
+                List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+                for (ScoreDoc score_doc : hits) {
+                    if (score_doc.score > topScore - RELEVANCY_THRESH) {
+                        LeafReaderContext leaf
+                            = leaves.get(ReaderUtil.subIndex(score_doc.doc, leaves));
+                        relevant.add(new SidInfo(leaf.reader(), score_doc.doc - leaf.docBase));
+                    }
                 }
             }
-        }
 
-        return relevant;
+            return relevant;
+        } finally {
+            this.searcherManager.release(searcher);
+        }
     }
 
     /**
@@ -200,4 +762,24 @@ public class SidDatabase {
     public SidTune load(Path path) throws IOException, SidTuneError {
         return SidTune.load(this.basePath.resolve(path).toFile());
     }
+
+    /**
+     * Get the length of a song
+     *
+     * @param path the HVSC path to the tune
+     * @param song the song number, starting at 1
+     *
+     * @return the length in milliseconds, or 0 if unknown and there is no default
+     *
+     * @throws IOException if the tune file cannot be read
+     */
+    public long songLength(Path path, int song) throws IOException {
+        if (this.songLengths != null) {
+            int length = this.songLengths.lookup(this.basePath.resolve(path), song);
+            if (length > 0) {
+                return length;
+            }
+        }
+        return this.defaultSongSeconds * 1000L;
+    }
 }
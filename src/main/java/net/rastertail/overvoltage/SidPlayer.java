@@ -7,18 +7,68 @@ import libsidplay.HardwareEnsemble;
 import libsidplay.config.IConfig;
 import libsidplay.common.CPUClock;
 import libsidplay.common.Event;
+import libsidplay.common.EventScheduler;
 import libsidplay.common.SIDEmu;
+import libsidplay.common.SamplingMethod;
 import libsidplay.components.mos6510.MOS6510;
 import libsidplay.sidtune.SidTune;
 
 /** A minimal SID player based on JSIDPlay2 */
-public class SidPlayer extends HardwareEnsemble {
+public class SidPlayer extends HardwareEnsemble implements AutoCloseable {
+    /** Statistics about a single render call */
+    public static class RenderStats {
+        /** Number of audio buffers produced */
+        public long frames;
+
+        /** Number of emulated CPU cycles */
+        public long cycles;
+
+        /** Wall clock time spent rendering in nanoseconds */
+        public long nanos;
+
+        /** Emulated clock frequency in Hz */
+        public double clockFrequency;
+
+        /**
+         * Get how many seconds of emulation were run per second of wall clock time
+         *
+         * @return the emulation speed relative to real time
+         */
+        public double speed() {
+            if (this.nanos == 0) {
+                return 0.0;
+            }
+            return (this.cycles / this.clockFrequency) / (this.nanos / 1e9);
+        }
+    }
+
+    /** Number of audio buffers per second of emulated time */
+    private static final int FRAMES_PER_SECOND = 50;
+
+    /** How many times to double the mixer speed while skipping ahead */
+    private static final int FAST_FORWARD_STEPS = 5;
+
     /** The SID emulation builder */
     private ReSIDBuilder sidBuilder;
 
     /** The audio driver to collect data in */
     private BufferDriver audioDriver;
 
+    /** Statistics of the most recent render call, reused between calls */
+    private RenderStats stats;
+
+    /** The guild this player is rendering for, for flight recorder events */
+    private String guild;
+
+    /** HVSC path of the tune playing, for flight recorder events */
+    private String tunePath;
+
+    /** The tune playing, if any */
+    private SidTune tune;
+
+    /** Whether or not the SID chips must be locked again to pick up changed settings */
+    private boolean relock;
+
     /** Construct a new SID player */
     public SidPlayer(IConfig config) {
         // Initialize a full C64 emulation
@@ -34,8 +84,8 @@ public class SidPlayer extends HardwareEnsemble {
             this.c64.getClock()
         );
 
-        // Construct, open, and register audio driver
-        this.audioDriver = new BufferDriver(5);
+        // Construct, open, and register audio driver, encoding on the render thread
+        this.audioDriver = new BufferDriver(6, true);
         this.audioDriver.open(
             this.config.getAudioSection(),
             "",
@@ -44,14 +94,47 @@ public class SidPlayer extends HardwareEnsemble {
         );
         this.sidBuilder.setAudioDriver(this.audioDriver);
         this.sidBuilder.start();
+
+        this.stats = new RenderStats();
+    }
+
+    /**
+     * Set which guild this player is rendering for, as shown in flight recorder events
+     *
+     * @param guild the guild, or null if not rendering for a guild
+     */
+    public void setGuild(String guild) {
+        this.guild = guild;
+        this.audioDriver.label(this.guild, this.tunePath);
+    }
+
+    /**
+     * Change how emulator output is resampled
+     *
+     * Takes effect from the next render call, which locks the playing tune's SID chips
+     * again so that they pick up the new setting. Must only be called from the thread
+     * rendering this player.
+     *
+     * @param sampling the sampling method to use
+     */
+    public void setSampling(SamplingMethod sampling) {
+        if (this.config.getAudioSection().getSampling() != sampling) {
+            this.config.getAudioSection().setSampling(sampling);
+            this.relock = true;
+        }
     }
 
     /**
      * Initialize a song to be played
      *
      * @param tune the SID tune to play
+     * @param path the tune's HVSC path, as shown in flight recorder events
      */
-    public void play(SidTune tune) {
+    public void play(SidTune tune, String path) {
+        FlightEvents.Play event = FlightEvents.beginPlay();
+        this.tunePath = path;
+        this.audioDriver.label(this.guild, this.tunePath);
+
         // Update clock speed
         this.setClock(CPUClock.getCPUClock(this.config.getEmulationSection(), tune));
 
@@ -59,17 +142,8 @@ public class SidPlayer extends HardwareEnsemble {
         this.reset();
 
         // Insert SID chips required for tune
-        this.c64.insertSIDChips(
-            (sidNum, sidEmu) -> {
-                if (SidTune.isSIDUsed(this.config.getEmulationSection(), tune, sidNum)) {
-                    return this.sidBuilder.lock(sidEmu, sidNum, tune);
-                } else if (sidEmu != SIDEmu.NONE) {
-                    this.sidBuilder.unlock(sidEmu);
-                }
-                return SIDEmu.NONE;
-            },
-            sidNum -> SidTune.getSIDAddress(config.getEmulationSection(), tune, sidNum)
-        );
+        this.tune = tune;
+        this.insertSIDChips();
 
         // Update chip panning
         if (SidTune.isSIDUsed(this.config.getEmulationSection(), tune, 2)) {
@@ -99,13 +173,189 @@ public class SidPlayer extends HardwareEnsemble {
 
         // Schedule SID mixing
         this.sidBuilder.start();
+
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.guild = this.guild;
+            event.tune = this.tunePath;
+            event.sids = SidTune.isSIDUsed(this.config.getEmulationSection(), tune, 2) ? 3
+                : SidTune.isSIDUsed(this.config.getEmulationSection(), tune, 1) ? 2
+                : 1;
+            event.commit();
+        }
     }
 
-    /** Render audio until the internal driver ring buffer is full */
-    public void renderFull() throws InterruptedException {
-        while (!this.audioDriver.full()) {
-            this.c64.getEventScheduler().clock();
+    /** Insert the SID chips the playing tune needs, configured as currently set up */
+    private void insertSIDChips() {
+        SidTune tune = this.tune;
+        this.c64.insertSIDChips(
+            (sidNum, sidEmu) -> {
+                if (SidTune.isSIDUsed(this.config.getEmulationSection(), tune, sidNum)) {
+                    return this.sidBuilder.lock(sidEmu, sidNum, tune);
+                } else if (sidEmu != SIDEmu.NONE) {
+                    this.sidBuilder.unlock(sidEmu);
+                }
+                return SIDEmu.NONE;
+            },
+            sidNum -> SidTune.getSIDAddress(config.getEmulationSection(), tune, sidNum)
+        );
+        this.relock = false;
+    }
+
+    /**
+     * Stop playing and drop any buffered audio, e.g. before handing the player to
+     * someone else
+     *
+     * Must not be called while anything is reading from the driver.
+     */
+    public void stop() {
+        this.reset();
+        this.audioDriver.clear();
+    }
+
+    /**
+     * Stop playing for good and free the audio driver
+     *
+     * Must only be called from the thread which last used the player.
+     */
+    @Override
+    public void close() {
+        this.reset();
+        this.audioDriver.close();
+    }
+
+    /**
+     * Render audio until the internal driver ring buffer is full
+     *
+     * @return statistics for this render call
+     */
+    public RenderStats renderFull() throws InterruptedException {
+        return this.render(this.audioDriver.free());
+    }
+
+    /**
+     * Render exactly the given number of audio buffers
+     *
+     * The emulation runs in a tight loop which only checks the driver's buffer count
+     * between events; the ring itself is not touched until the mixer writes to it.
+     * Buffers beyond the free space in the ring are dropped.
+     *
+     * @param frames the number of buffers to render
+     *
+     * @return statistics for this render call, valid until the next render call
+     */
+    public RenderStats render(int frames) throws InterruptedException {
+        if (this.relock && this.tune != null) {
+            this.insertSIDChips();
+        }
+
+        EventScheduler scheduler = this.c64.getEventScheduler();
+        long startFrames = this.audioDriver.produced();
+        long targetFrames = startFrames + frames;
+        long startCycles = scheduler.getTime(Event.Phase.PHI2);
+        FlightEvents.Render event = FlightEvents.beginRender();
+        long startNanos = System.nanoTime();
+
+        while (this.audioDriver.produced() < targetFrames) {
+            scheduler.clock();
         }
+
+        return this.finishStats(startFrames, startCycles, startNanos, event);
+    }
+
+    /**
+     * Skip ahead in the current tune without producing any audio
+     *
+     * The mixer is fast-forwarded so it resamples as little as possible, and whatever
+     * it still mixes is dropped by the driver before encoding. The driver's buffer
+     * count therefore does not advance in step with emulated time while skipping.
+     *
+     * @param frames how many buffers' worth of emulated time to skip
+     *
+     * @return statistics for this render call, valid until the next render call
+     */
+    public RenderStats skip(long frames) throws InterruptedException {
+        long cycles = (long) (frames * this.c64.getClock().getCpuFrequency() / FRAMES_PER_SECOND);
+
+        this.audioDriver.setMuted(true);
+        for (int i = 0; i < FAST_FORWARD_STEPS; i++) {
+            this.sidBuilder.fastForward();
+        }
+
+        try {
+            return this.renderCycles(cycles);
+        } finally {
+            this.sidBuilder.normalSpeed();
+            this.audioDriver.setMuted(false);
+        }
+    }
+
+    /**
+     * Render for the given number of emulated CPU cycles
+     *
+     * @param cycles the number of cycles to emulate
+     *
+     * @return statistics for this render call, valid until the next render call
+     */
+    public RenderStats renderCycles(long cycles) throws InterruptedException {
+        if (this.relock && this.tune != null) {
+            this.insertSIDChips();
+        }
+
+        EventScheduler scheduler = this.c64.getEventScheduler();
+        long startFrames = this.audioDriver.produced();
+        long startCycles = scheduler.getTime(Event.Phase.PHI2);
+        long targetCycles = startCycles + cycles;
+        FlightEvents.Render event = FlightEvents.beginRender();
+        long startNanos = System.nanoTime();
+
+        while (scheduler.getTime(Event.Phase.PHI2) < targetCycles) {
+            scheduler.clock();
+        }
+
+        return this.finishStats(startFrames, startCycles, startNanos, event);
+    }
+
+    /**
+     * Fill in render statistics at the end of a render call, and emit its flight recorder
+     * event
+     *
+     * @param startFrames the driver's produced buffer count before rendering
+     * @param startCycles the emulated cycle count before rendering
+     * @param startNanos the wall clock time before rendering
+     * @param event the render call's event, begun along with rendering, or null if not
+     *     recording
+     *
+     * @return the filled in statistics
+     */
+    private RenderStats finishStats(
+        long startFrames,
+        long startCycles,
+        long startNanos,
+        FlightEvents.Render event
+    ) {
+        this.stats.nanos = System.nanoTime() - startNanos;
+        this.stats.frames = this.audioDriver.produced() - startFrames;
+        this.stats.cycles = this.c64.getEventScheduler().getTime(Event.Phase.PHI2) - startCycles;
+        this.stats.clockFrequency = this.c64.getClock().getCpuFrequency();
+        if (event == null) {
+            return this.stats;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.guild = this.guild;
+            event.tune = this.tunePath;
+            event.frames = this.stats.frames;
+            event.cycles = this.stats.cycles;
+            event.commit();
+        }
+
+        return this.stats;
     }
 
     /**
@@ -0,0 +1,250 @@
+package net.rastertail.overvoltage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The HVSC song length database, keyed by the MD5 digest of each tune file
+ *
+ * Entries live in a flat open-addressed hash table of primitive arrays: each
+ * digest is stored as two longs next to a packed reference into one shared array
+ * of lengths, so the whole database costs a few megabytes and no boxing.
+ */
+public class SongLengths {
+    /** Number of bits of a packed span holding the song count */
+    private static final int COUNT_BITS = 8;
+
+    /** Mask extracting the song count from a packed span */
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+
+    /** High halves of the digests in each table slot */
+    private long[] keysHi;
+
+    /** Low halves of the digests in each table slot */
+    private long[] keysLo;
+
+    /** Offset into {@link #lengths} and song count of each slot, or 0 if the slot is empty */
+    private int[] spans;
+
+    /** Song lengths in milliseconds, grouped per tune */
+    private int[] lengths;
+
+    /** Number of entries of {@link #lengths} in use */
+    private int lengthsUsed;
+
+    /** Number of tunes in the database */
+    private int size;
+
+    /**
+     * Construct an empty database
+     *
+     * @param capacity the number of tunes to make room for
+     */
+    private SongLengths(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+        this.keysHi = new long[slots];
+        this.keysLo = new long[slots];
+        this.spans = new int[slots];
+        this.lengths = new int[capacity * 2];
+    }
+
+    /**
+     * Load a Songlengths.md5 file
+     *
+     * @param file the database file
+     *
+     * @return the loaded database
+     *
+     * @throws IOException if the database cannot be read or is malformed
+     */
+    public static SongLengths load(Path file) throws IOException {
+        // Count entries up front to size the table
+        int entries = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (isEntry(line)) {
+                    entries++;
+                }
+            }
+        }
+
+        SongLengths db = new SongLengths(entries);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!isEntry(line)) {
+                    continue;
+                }
+
+                int eq = line.indexOf('=');
+                String[] times = line.substring(eq + 1).trim().split("\\s+");
+                int[] ms = new int[times.length];
+                for (int i = 0; i < times.length; i++) {
+                    ms[i] = parseTime(times[i]);
+                }
+                db.put(line.substring(0, eq).trim(), ms);
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed song length database", e);
+        }
+
+        return db;
+    }
+
+    /**
+     * Look up the length of a song
+     *
+     * @param file the tune file
+     * @param song the song number, starting at 1
+     *
+     * @return the length in milliseconds, or -1 if unknown
+     *
+     * @throws IOException if the tune file cannot be read
+     */
+    public int lookup(Path file, int song) throws IOException {
+        byte[] digest = md5(Files.readAllBytes(file));
+        int slot = this.find(toLong(digest, 0), toLong(digest, 8));
+        if (slot < 0) {
+            return -1;
+        }
+
+        int span = this.spans[slot];
+        int count = span & COUNT_MASK;
+        if (song < 1 || song > count) {
+            return -1;
+        }
+        return this.lengths[(span >>> COUNT_BITS) + song - 1];
+    }
+
+    /** Get the number of tunes in the database */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Add a tune to the database
+     *
+     * @param hex the hex encoded MD5 digest of the tune
+     * @param ms the song lengths in milliseconds
+     */
+    private void put(String hex, int[] ms) {
+        long hi = Long.parseUnsignedLong(hex.substring(0, 16), 16);
+        long lo = Long.parseUnsignedLong(hex.substring(16, 32), 16);
+        int count = Math.min(ms.length, COUNT_MASK);
+
+        // Append the lengths to the shared pool
+        int offset = this.lengthsUsed;
+        if (offset + count > this.lengths.length) {
+            int grown = Math.max(this.lengths.length * 2, offset + count);
+            this.lengths = Arrays.copyOf(this.lengths, grown);
+        }
+        System.arraycopy(ms, 0, this.lengths, offset, count);
+        this.lengthsUsed = offset + count;
+
+        // Linear probe for the digest's slot, overwriting duplicates
+        int mask = this.spans.length - 1;
+        int slot = hash(hi, lo) & mask;
+        while (this.spans[slot] != 0 && (this.keysHi[slot] != hi || this.keysLo[slot] != lo)) {
+            slot = (slot + 1) & mask;
+        }
+        if (this.spans[slot] == 0) {
+            this.size++;
+        }
+        this.keysHi[slot] = hi;
+        this.keysLo[slot] = lo;
+        this.spans[slot] = (offset << COUNT_BITS) | count;
+    }
+
+    /**
+     * Find the slot holding a digest
+     *
+     * @param hi the high half of the digest
+     * @param lo the low half of the digest
+     *
+     * @return the slot, or -1 if the digest is not in the database
+     */
+    private int find(long hi, long lo) {
+        int mask = this.spans.length - 1;
+        int slot = hash(hi, lo) & mask;
+        while (this.spans[slot] != 0) {
+            if (this.keysHi[slot] == hi && this.keysLo[slot] == lo) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Check if a database line is a tune entry rather than a comment or section
+     *
+     * @param line the line to check
+     */
+    private static boolean isEntry(String line) {
+        return line.length() > 33 && line.charAt(32) == '=' && line.charAt(0) != ';';
+    }
+
+    /**
+     * Parse a song length such as "3:14", "3:14.500" or "0:05(G)"
+     *
+     * @param time the length as written in the database
+     *
+     * @return the length in milliseconds
+     */
+    private static int parseTime(String time) {
+        int paren = time.indexOf('(');
+        if (paren >= 0) {
+            time = time.substring(0, paren);
+        }
+
+        int colon = time.indexOf(':');
+        int minutes = Integer.parseInt(time.substring(0, colon));
+        double seconds = Double.parseDouble(time.substring(colon + 1));
+        return minutes * 60_000 + (int) Math.round(seconds * 1000);
+    }
+
+    /**
+     * Mix the halves of a digest into a table index
+     *
+     * @param hi the high half of the digest
+     * @param lo the low half of the digest
+     */
+    private static int hash(long hi, long lo) {
+        long h = hi ^ lo;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Read eight big-endian bytes as a long
+     *
+     * @param bytes the bytes to read
+     * @param offset where to start reading
+     */
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Compute the MD5 digest of some data
+     *
+     * @param data the data to hash
+     */
+    private static byte[] md5(byte[] data) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package net.rastertail.overvoltage;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A continuous radio station shared by any number of guilds
+ *
+ * A station runs a single emulator in real time and publishes its Opus packets to
+ * a shared ring. Each guild listens through its own {@link Listener}, which keeps a
+ * private cursor into the ring, so the cost of a station does not depend on how
+ * many guilds are tuned in. Stations with nobody
+ * listening stop rendering altogether.
+ *
+ * Tunes are picked and loaded from disk on a separate loader thread, one tune ahead, so
+ * that a slow disk never holds up the render thread the station shares with others.
+ */
+public class Station implements RenderTask {
+    /** A single guild's view of the station */
+    public class Listener implements AudioSendHandler {
+        /** Sequence number of the next packet to send, or -1 if not yet joined */
+        private long cursor;
+
+        /** Private copy of the packet about to be sent */
+        private ByteBuffer packet;
+
+        /** Whether or not {@link #packet} holds a packet to send */
+        private boolean ready;
+
+        /** Whether or not this listener has left the station */
+        private boolean closed;
+
+        /** Construct a new listener */
+        private Listener() {
+            this.cursor = -1;
+            this.packet = ByteBuffer.allocate(OpusEncoder.MAX_PACKET_BYTES);
+        }
+
+        /** Get the station this listener is tuned in to */
+        public Station station() {
+            return Station.this;
+        }
+
+        /**
+         * Fetch the next packet from the station, if one is ready
+         *
+         * JDA always asks this right before providing audio, so the packet is copied out
+         * of the shared ring here.
+         */
+        @Override
+        public boolean canProvide() {
+            if (this.closed) {
+                return false;
+            }
+
+            this.ready = Station.this.copyPacket(this);
+            return this.ready;
+        }
+
+        /** Provide the packet fetched by {@link #canProvide()} */
+        @Override
+        public ByteBuffer provide20MsAudio() {
+            return this.ready ? this.packet : null;
+        }
+
+        @Override
+        public boolean isOpus() {
+            return true;
+        }
+
+        /** Stop listening to the station */
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                Station.this.unsubscribe();
+            }
+        }
+    }
+
+    /** Logger for this class */
+    private final Logger LOG = LoggerFactory.getLogger(Station.class);
+
+    /** Duration of a single audio frame in nanoseconds */
+    private static final long FRAME_NANOS = 20_000_000L;
+
+    /** How far ahead of real time to render */
+    private static final long RENDER_LEAD_NANOS = 2 * FRAME_NANOS;
+
+    /** How often to wake up while nobody is listening */
+    private static final long IDLE_NANOS = 50 * FRAME_NANOS;
+
+    /** Number of packets in the shared ring */
+    private static final int RING_SIZE = 64;
+
+    /** How many packets behind the newest one a listener starts or resyncs at */
+    private static final int JOIN_LAG = 2;
+
+    /** How many packets a listener may fall behind before it is resynced */
+    private static final int MAX_LAG = RING_SIZE / 2;
+
+    /** Handle for release stores to the write sequence */
+    private static final VarHandle WRITE_SEQ;
+
+    static {
+        try {
+            WRITE_SEQ = MethodHandles.lookup()
+                .findVarHandle(Station.class, "writeSeq", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Name of this station */
+    private String name;
+
+    /** Picks the next tune to play */
+    private Callable<VoiceSender.QueuedTune> tunes;
+
+    /** Thread picking and loading tunes */
+    private ExecutorService loader;
+
+    /** The next tune to play, once loaded */
+    private volatile VoiceSender.QueuedTune prefetched;
+
+    /** Whether or not the loader is busy loading the next tune */
+    private volatile boolean loading;
+
+    /** How many frames to play tunes of unknown length for */
+    private long defaultFrames;
+
+    /** How many frames of the current tune to play before moving on */
+    private long tuneFrames;
+
+    /** The scheduler rendering this station */
+    private RenderScheduler scheduler;
+
+    /** The station's emulator, only touched by the render thread */
+    private SidPlayer player;
+
+    /** Ring of encoded packets */
+    private byte[][] ring;
+
+    /** Length of each packet in the ring */
+    private int[] lengths;
+
+    /** Number of packets published to the ring */
+    private volatile long writeSeq;
+
+    /** Time at which the next packet is due */
+    private long deadline;
+
+    /** Frames of the current tune played so far, or -1 if a new tune is needed */
+    private long frames;
+
+    /** Description of the tune currently playing */
+    private volatile String nowPlaying;
+
+    /** Number of listeners tuned in */
+    private AtomicInteger listeners;
+
+    /** Whether or not this station has been asked to close */
+    private volatile boolean closed;
+
+    /** Whether or not this station has freed its emulator after closing */
+    private volatile boolean finished;
+
+    /**
+     * Construct and start a new station
+     *
+     * @param name the name of the station
+     * @param tunes picks the next tune to play
+     * @param tuneSeconds how long to play tunes of unknown length for
+     * @param scheduler the render scheduler to run the station on
+     */
+    public Station(
+        String name,
+        Callable<VoiceSender.QueuedTune> tunes,
+        int tuneSeconds,
+        RenderScheduler scheduler
+    ) {
+        this.name = name;
+        this.tunes = tunes;
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "station-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        this.defaultFrames = TimeUnit.SECONDS.toNanos(tuneSeconds) / FRAME_NANOS;
+        this.scheduler = scheduler;
+        this.ring = new byte[RING_SIZE][OpusEncoder.MAX_PACKET_BYTES];
+        this.lengths = new int[RING_SIZE];
+        this.frames = -1;
+        this.nowPlaying = "nothing yet";
+        this.listeners = new AtomicInteger();
+
+        // Sleep until somebody tunes in
+        this.deadline = System.nanoTime() + IDLE_NANOS;
+        this.scheduler.submit(this);
+    }
+
+    /** Get the name of this station */
+    public String name() {
+        return this.name;
+    }
+
+    /** Get a description of the tune currently playing */
+    public String nowPlaying() {
+        return this.nowPlaying;
+    }
+
+    /** Get the number of listeners tuned in */
+    public int listeners() {
+        return this.listeners.get();
+    }
+
+    /**
+     * Tune in to this station
+     *
+     * @return a new listener, to be closed when no longer needed
+     */
+    public Listener subscribe() {
+        if (this.listeners.getAndIncrement() == 0) {
+            this.scheduler.expedite(this);
+        }
+        return new Listener();
+    }
+
+    /** Drop a listener */
+    private void unsubscribe() {
+        this.listeners.decrementAndGet();
+    }
+
+    @Override
+    public long deadline() {
+        return this.deadline;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(
+            this.deadline - RENDER_LEAD_NANOS - System.nanoTime(),
+            TimeUnit.NANOSECONDS
+        );
+    }
+
+    @Override
+    public void wake() {
+        this.deadline = System.nanoTime();
+    }
+
+    @Override
+    public void postpone(long nanos) {
+        this.deadline = System.nanoTime() + RENDER_LEAD_NANOS + nanos;
+    }
+
+    @Override
+    public boolean finished() {
+        return this.finished;
+    }
+
+    /**
+     * Shut the station down, freeing its emulator from the render thread
+     *
+     * Listeners still tuned in just stop receiving packets.
+     */
+    public void close() {
+        this.closed = true;
+        this.loader.shutdownNow();
+        this.scheduler.expedite(this);
+    }
+
+    /** Render and publish every packet due within the render lead */
+    @Override
+    public void service() throws InterruptedException {
+        long now = System.nanoTime();
+
+        // Free everything once closed
+        if (this.closed) {
+            if (this.player != null) {
+                this.player.close();
+                this.player = null;
+            }
+            this.finished = true;
+            return;
+        }
+
+        // Pause while nobody is listening
+        if (this.listeners.get() == 0) {
+            this.deadline = now + IDLE_NANOS;
+            return;
+        }
+
+        // Do not try to catch up on time spent paused or stalled
+        if (this.deadline < now - RING_SIZE * FRAME_NANOS) {
+            this.deadline = now;
+        }
+
+        while (this.deadline <= now + RENDER_LEAD_NANOS) {
+            if (this.frames < 0 || this.frames >= this.tuneFrames) {
+                if (!this.nextTune()) {
+                    this.deadline = now + IDLE_NANOS;
+                    return;
+                }
+            }
+
+            this.publish();
+            this.frames++;
+            this.deadline += FRAME_NANOS;
+        }
+    }
+
+    /**
+     * Start the next tune, if the loader has one ready
+     *
+     * Either way, the loader is set to work on the tune after.
+     *
+     * @return whether or not a tune was started
+     */
+    private boolean nextTune() {
+        VoiceSender.QueuedTune tune = this.prefetched;
+        this.prefetched = null;
+        this.prefetch();
+        if (tune == null) {
+            return false;
+        }
+
+        try {
+            // Create the emulator on first use
+            if (this.player == null) {
+                this.player = new SidPlayer(VoiceSender.createConfig());
+                this.player.setGuild("station " + this.name);
+            }
+
+            this.player.play(tune.tune, tune.path);
+            this.nowPlaying = tune.title;
+            this.tuneFrames = tune.frames > 0 ? tune.frames : this.defaultFrames;
+            this.frames = 0;
+
+            LOG.info("Station {} now playing {}", this.name, this.nowPlaying);
+            return true;
+        } catch (Exception e) {
+            LOG.error("Station {} failed to start the next tune: {}", this.name, e);
+            return false;
+        }
+    }
+
+    /**
+     * Have the loader pick and load the next tune, unless it already has one
+     *
+     * Once a tune is loaded, the station is woken up in case it was waiting for one.
+     */
+    private void prefetch() {
+        if (this.loading || this.prefetched != null) {
+            return;
+        }
+
+        this.loading = true;
+        try {
+            this.loader.execute(() -> {
+                try {
+                    this.prefetched = this.tunes.call();
+                } catch (InterruptedException e) {
+                    // Closed meanwhile
+                    return;
+                } catch (Exception e) {
+                    LOG.error("Station {} failed to load the next tune: {}", this.name, e);
+                } finally {
+                    this.loading = false;
+                }
+
+                if (this.prefetched != null) {
+                    this.scheduler.expedite(this);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile
+            this.loading = false;
+        }
+    }
+
+    /** Render and publish a single packet */
+    private void publish() throws InterruptedException {
+        while (!this.player.driver().hasData()) {
+            this.player.render(1);
+        }
+        ByteBuffer packet = this.player.driver().read();
+
+        // Fill the slot, then make it visible to listeners
+        long seq = this.writeSeq;
+        int slot = (int) (seq % RING_SIZE);
+        int length = packet.remaining();
+        packet.get(this.ring[slot], 0, length);
+        this.lengths[slot] = length;
+        WRITE_SEQ.setRelease(this, seq + 1);
+    }
+
+    /**
+     * Copy a listener's next packet out of the ring
+     *
+     * Listeners which fell too far behind, or whose packet was overwritten while being
+     * copied, are resynced close to the newest packet.
+     *
+     * @param listener the listener to copy for
+     *
+     * @return whether or not a packet was copied
+     */
+    private boolean copyPacket(Listener listener) {
+        long head = this.writeSeq;
+        if (listener.cursor < 0 || head - listener.cursor > MAX_LAG) {
+            listener.cursor = Math.max(head - JOIN_LAG, 0);
+        }
+        if (listener.cursor >= head) {
+            return false;
+        }
+
+        // Copy the packet, then check the writer did not lap us meanwhile
+        int slot = (int) (listener.cursor % RING_SIZE);
+        int length = this.lengths[slot];
+        listener.packet.clear();
+        listener.packet.put(this.ring[slot], 0, length);
+        listener.packet.flip();
+
+        VarHandle.loadLoadFence();
+        if (this.writeSeq - listener.cursor >= RING_SIZE) {
+            listener.cursor = -1;
+            return false;
+        }
+
+        listener.cursor++;
+        return true;
+    }
+}
@@ -0,0 +1,269 @@
+package net.rastertail.overvoltage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * An in-memory FST prefix suggester over tune titles and artists
+ *
+ * Every word of a title or artist starts a suggestion key, so typing any word of
+ * either one finds the tune.
+ */
+public class TuneSuggester {
+    /** A single suggested tune */
+    public static class Suggestion {
+        /** Display name of the tune */
+        public String name;
+
+        /** HVSC path of the tune */
+        public Path path;
+
+        /**
+         * Construct a new suggestion
+         *
+         * @param name the display name of the tune
+         * @param path the HVSC path of the tune
+         */
+        public Suggestion(String name, Path path) {
+            this.name = name;
+            this.path = path;
+        }
+    }
+
+    /** A suggestion key waiting to be built into the FST */
+    private static class Entry {
+        /** The text to match prefixes against */
+        String key;
+
+        /** The tune's HVSC path and display name */
+        BytesRef payload;
+
+        /** The suggestion weight */
+        long weight;
+    }
+
+    /** Separator between the path and display name in payloads */
+    private static final char PAYLOAD_SEP = '\n';
+
+    /** Maximum number of words of a title or artist to start keys from */
+    private static final int MAX_KEYS_PER_FIELD = 4;
+
+    /** Weight of keys starting at the beginning of a title */
+    private static final long TITLE_WEIGHT = 2;
+
+    /** Weight of all other keys */
+    private static final long OTHER_WEIGHT = 1;
+
+    /** The underlying Lucene suggester */
+    private AnalyzingSuggester suggester;
+
+    /**
+     * Construct a new suggester
+     *
+     * @param suggester the built Lucene suggester
+     */
+    private TuneSuggester(AnalyzingSuggester suggester) {
+        this.suggester = suggester;
+    }
+
+    /**
+     * Build a suggester from the doc values of a search index
+     *
+     * @param reader the index to read tunes from
+     * @param analyzer the analyzer to normalize keys with
+     * @param titleField the title field name
+     * @param artistField the artist field name
+     * @param pathField the path field name
+     *
+     * @return the built suggester
+     *
+     * @throws IOException if the index is inaccessible
+     */
+    public static TuneSuggester build(
+        IndexReader reader,
+        Analyzer analyzer,
+        String titleField,
+        String artistField,
+        String pathField
+    ) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+
+        for (LeafReaderContext leaf : reader.leaves()) {
+            SortedDocValues titles = DocValues.getSorted(leaf.reader(), titleField);
+            SortedDocValues artists = DocValues.getSorted(leaf.reader(), artistField);
+            SortedDocValues paths = DocValues.getSorted(leaf.reader(), pathField);
+            Bits liveDocs = leaf.reader().getLiveDocs();
+
+            for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                // Skip deleted tunes and any without complete metadata
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                if (
+                    !titles.advanceExact(doc)
+                    || !artists.advanceExact(doc)
+                    || !paths.advanceExact(doc)
+                ) {
+                    continue;
+                }
+
+                String title = titles.lookupOrd(titles.ordValue()).utf8ToString();
+                String artist = artists.lookupOrd(artists.ordValue()).utf8ToString();
+                String path = paths.lookupOrd(paths.ordValue()).utf8ToString();
+                BytesRef payload = new BytesRef(path + PAYLOAD_SEP + title + " • " + artist);
+
+                addKeys(entries, title, payload, TITLE_WEIGHT);
+                addKeys(entries, artist, payload, OTHER_WEIGHT);
+            }
+        }
+
+        // Build the FST, sorting through a throwaway in-memory directory
+        AnalyzingSuggester suggester = new AnalyzingSuggester(
+            new ByteBuffersDirectory(),
+            "suggest",
+            analyzer
+        );
+        suggester.build(new EntryIterator(entries.iterator()));
+
+        return new TuneSuggester(suggester);
+    }
+
+    /**
+     * Suggest tunes whose title or artist has a word starting with the given text
+     *
+     * @param prefix the text typed so far
+     * @param count the maximum number of suggestions
+     *
+     * @return the suggestions, best first, without duplicate tunes
+     *
+     * @throws IOException if the lookup fails
+     */
+    public List<Suggestion> suggest(String prefix, int count) throws IOException {
+        ArrayList<Suggestion> suggestions = new ArrayList<Suggestion>();
+        if (prefix.isBlank()) {
+            return suggestions;
+        }
+
+        // Ask for extra results since a tune may match through several keys
+        Set<String> seen = new HashSet<String>();
+        for (Lookup.LookupResult result : this.suggester.lookup(prefix, false, count * 2)) {
+            String payload = result.payload.utf8ToString();
+            int sep = payload.indexOf(PAYLOAD_SEP);
+            String path = payload.substring(0, sep);
+
+            if (seen.add(path)) {
+                suggestions.add(new Suggestion(payload.substring(sep + 1), Paths.get(path)));
+                if (suggestions.size() >= count) {
+                    break;
+                }
+            }
+        }
+
+        return suggestions;
+    }
+
+    /** Get the approximate memory used by the suggester in bytes */
+    public long ramBytesUsed() {
+        return this.suggester.ramBytesUsed();
+    }
+
+    /**
+     * Add a key for each of the first few words of a field
+     *
+     * @param entries the list of keys to add to
+     * @param text the field text
+     * @param payload the tune's payload
+     * @param firstWeight the weight of the key starting at the first word
+     */
+    private static void addKeys(
+        ArrayList<Entry> entries,
+        String text,
+        BytesRef payload,
+        long firstWeight
+    ) {
+        String[] words = text.trim().split("\\s+");
+        for (int i = 0; i < Math.min(words.length, MAX_KEYS_PER_FIELD); i++) {
+            if (words[i].isEmpty()) {
+                continue;
+            }
+
+            Entry entry = new Entry();
+            entry.key = String.join(" ", Arrays.copyOfRange(words, i, words.length));
+            entry.payload = payload;
+            entry.weight = i == 0 ? firstWeight : OTHER_WEIGHT;
+            entries.add(entry);
+        }
+    }
+
+    /** Adapter feeding suggestion keys to the Lucene suggester */
+    private static class EntryIterator implements InputIterator {
+        /** Remaining keys */
+        private Iterator<Entry> entries;
+
+        /** The current key */
+        private Entry current;
+
+        /**
+         * Construct a new adapter
+         *
+         * @param entries the keys to feed
+         */
+        EntryIterator(Iterator<Entry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public BytesRef next() {
+            if (!this.entries.hasNext()) {
+                return null;
+            }
+            this.current = this.entries.next();
+            return new BytesRef(this.current.key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public long weight() {
+            return this.current.weight;
+        }
+
+        @Override
+        public BytesRef payload() {
+            return this.current.payload;
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return true;
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return null;
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return false;
+        }
+    }
+}
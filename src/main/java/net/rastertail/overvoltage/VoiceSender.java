@@ -1,7 +1,13 @@
 package net.rastertail.overvoltage;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import net.dv8tion.jda.api.audio.AudioSendHandler;
@@ -12,19 +18,267 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sidplay.ini.IniConfig;
 
-/** A Discord voice sender which sends SID music */
-public class VoiceSender extends Thread implements AudioSendHandler {
+/**
+ * A Discord voice sender which sends SID music
+ *
+ * Audio is rendered ahead of time by a {@link RenderScheduler}, so providing audio
+ * to JDA only ever dequeues an already rendered and encoded packet. Tunes found in the
+ * {@link OpusCache} skip emulation entirely and are sent as pre-encoded packets.
+ *
+ * Each sender keeps a queue of upcoming tunes. The next tune is started on a spare
+ * emulator in the background and swapped in at a buffer boundary, so there is no
+ * gap between tunes.
+ */
+public class VoiceSender implements AudioSendHandler, RenderTask, AutoCloseable {
+    /** A tune waiting in the queue */
+    public static class QueuedTune {
+        /** The prepared tune */
+        public final SidTune tune;
+
+        /** HVSC path of the tune */
+        public final String path;
+
+        /** Display title of the tune */
+        public final String title;
+
+        /** Length of the selected song in frames, or 0 to play forever */
+        public final long frames;
+
+        /** Position to start playing from in frames */
+        public final long start;
+
+        /**
+         * Construct a new queue entry
+         *
+         * @param tune the prepared tune
+         * @param path the HVSC path of the tune
+         * @param title the display title of the tune
+         * @param lengthMs the length of the selected song in milliseconds, or 0 if unknown
+         */
+        public QueuedTune(SidTune tune, String path, String title, long lengthMs) {
+            this.tune = tune;
+            this.path = path;
+            this.title = title;
+            this.frames = lengthMs * FRAMES_PER_SECOND / 1000;
+            this.start = 0;
+        }
+
+        /**
+         * Construct a copy of a queue entry starting at a different position
+         *
+         * @param from the entry to copy
+         * @param start the position to start playing from in frames
+         */
+        private QueuedTune(QueuedTune from, long start) {
+            this.tune = from.tune;
+            this.path = from.path;
+            this.title = from.title;
+            this.frames = from.frames;
+            this.start = start;
+        }
+
+        /**
+         * Get a copy of this entry starting at a different position
+         *
+         * @param start the position to start playing from in frames
+         *
+         * @return the copy
+         */
+        public QueuedTune startingAt(long start) {
+            return new QueuedTune(this, start);
+        }
+    }
+
     /** Logger for this class */
     private final Logger LOG = LoggerFactory.getLogger(VoiceSender.class);
 
-    /** Internal SID player */
-    private SidPlayer player;
+    /** Duration of a single audio frame in nanoseconds */
+    private static final long FRAME_NANOS = 20_000_000L;
+
+    /** Number of audio frames per second */
+    private static final int FRAMES_PER_SECOND = 50;
+
+    /** How long before buffered audio runs out to wake up and render more */
+    private static final long RENDER_LEAD_NANOS = 2 * FRAME_NANOS;
+
+    /** How often to wake up while the emulator is not playing anything */
+    private static final long IDLE_NANOS = 50 * FRAME_NANOS;
+
+    /** Frames left in a pre-rendered tune when the pre-rolled tune is queued up behind it */
+    private static final int CACHED_ARM_FRAMES = 5;
+
+    /** Most frames of emulated time skipped in one go while seeking */
+    private static final long SEEK_CHUNK_FRAMES = FRAMES_PER_SECOND;
+
+    /** Furthest position into a tune which can be jumped to, in seconds */
+    public static final long MAX_SEEK_SECONDS = 60 * 60;
+
+    /** Marker for {@link #silentSince} while something is playing */
+    private static final long PLAYING = Long.MIN_VALUE;
+
+    /** Wall clock time spent rendering each frame */
+    private static final Metrics.Histogram RENDER_FRAME_NANOS = Metrics.histogram(
+        "overvoltage_render_frame_seconds",
+        "Time spent emulating and encoding each 20ms frame of a voice sender",
+        1e-9,
+        50_000, 100_000, 200_000, 500_000, 1_000_000, 2_000_000, 5_000_000, 10_000_000,
+        20_000_000
+    );
+
+    /** Frames left in the ring when a voice sender wakes up to render */
+    private static final Metrics.Histogram RING_FILL = Metrics.histogram(
+        "overvoltage_ring_fill_frames",
+        "Frames still buffered when a voice sender wakes up to render",
+        1,
+        0, 1, 2, 3, 4, 5
+    );
+
+    /** Actions waiting to run on render threads, across all voice senders */
+    private static final Metrics.Gauge PENDING_ACTIONS = Metrics.gauge(
+        "overvoltage_voice_pending_actions",
+        "Actions waiting to run on render threads across all voice senders"
+    );
+
+    /** Voice senders which have not been closed */
+    private static final Metrics.Gauge ACTIVE_SENDERS = Metrics.gauge(
+        "overvoltage_voice_senders",
+        "Voice senders which have not been closed"
+    );
+
+    /** Identifies the output of {@link #createConfig()}, for keying pre-rendered audio */
+    public static final String CONFIG_ID = "48k-20ms-trurl4486-resample";
+
+    /** The player audio is currently sent from, only held while playing live */
+    private volatile SidPlayer player;
+
+    /** A pre-rolled player waiting to take over once {@link #player} runs dry */
+    private volatile SidPlayer next;
+
+    /** A player swapped out by the send thread, waiting to go back to the pool */
+    private SidPlayer retired;
+
+    /** Players taken away from the send thread, waiting for it to let go of them */
+    private ArrayList<SidPlayer> retiring;
+
+    /** {@link #sendEpoch} as of when players were last added to {@link #retiring} */
+    private long retiringEpoch;
+
+    /**
+     * Bumped by the send thread on entering and on leaving {@link #provide20MsAudio()},
+     * so it is odd while the send thread may be using a player
+     */
+    private volatile long sendEpoch;
+
+    /** Guards swapping {@link #player}, {@link #next} and {@link #retired} */
+    private final Object swapLock = new Object();
+
+    /** The player being rendered for, which is either the current or the next one */
+    private SidPlayer rendering;
+
+    /** Produced buffer count of {@link #rendering} at which its tune ends */
+    private long renderEnd;
+
+    /** Produced buffer count of {@link #rendering} at which its tune would have started */
+    private long renderStart;
+
+    /** Frames of emulated time {@link #rendering} still has to skip to reach a seek target */
+    private long skipLeft;
+
+    /** Position {@link #rendering} is skipping ahead to, in frames */
+    private long skipTarget;
+
+    /** A spare player with the upcoming tune started and its buffer filled */
+    private SidPlayer preroll;
+
+    /** The tune started on {@link #preroll} */
+    private QueuedTune prerollTune;
+
+    /** Frames of emulated time {@link #preroll} still has to skip to reach its start */
+    private long prerollSkip;
+
+    /**
+     * Produced buffer count of {@link #preroll} at which its tune reached its start, or -1
+     * while it is still skipping there
+     */
+    private long prerollBase;
+
+    /** Tunes waiting to be played */
+    private ConcurrentLinkedDeque<QueuedTune> upcoming;
+
+    /** The tune currently playing live, if any */
+    private volatile QueuedTune nowPlaying;
+
+    /** The guild this sender plays to, for flight recorder events */
+    private String guild;
+
+    /** The pool to take players from */
+    private PlayerPool pool;
+
+    /** The scheduler whose render threads run this sender's actions */
+    private RenderScheduler scheduler;
+
+    /** Decides the quality to render at, based on render thread load */
+    private QualityGovernor governor;
 
     /** Queue of actions to run on the player in the render thread */
-    private LinkedBlockingQueue<Consumer<SidPlayer>> actionQueue;
+    private ConcurrentLinkedQueue<Consumer<SidPlayer>> actionQueue;
+
+    /** Time at which buffered audio runs out, as of the last render */
+    private long deadline;
+
+    /** Pre-rendered tune currently playing, if any */
+    private volatile OpusCache.Stream cached;
+
+    /** Whether or not the emulator is playing a tune */
+    private volatile boolean live;
+
+    /** Whether or not the most recently provided frame was Opus encoded */
+    private boolean providedOpus;
+
+    /** When this sender last ran out of things to play, or {@link #PLAYING} if playing */
+    private volatile long silentSince;
 
-    /** Construct a new voice sender */
-    public VoiceSender() {
+    /** Whether or not this sender has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Construct a new voice sender
+     *
+     * @param guild the guild this sender plays to
+     * @param scheduler the render scheduler to run actions on
+     * @param pool the pool to take players from
+     * @param governor decides the quality to render at
+     */
+    public VoiceSender(
+        String guild,
+        RenderScheduler scheduler,
+        PlayerPool pool,
+        QualityGovernor governor
+    ) {
+        this.guild = guild;
+        this.scheduler = scheduler;
+        this.pool = pool;
+        this.governor = governor;
+        this.actionQueue = new ConcurrentLinkedQueue<Consumer<SidPlayer>>();
+        this.upcoming = new ConcurrentLinkedDeque<QueuedTune>();
+        this.retiring = new ArrayList<SidPlayer>();
+        this.silentSince = System.nanoTime();
+        ACTIVE_SENDERS.add(1);
+
+        // Start rendering ahead immediately
+        this.wake();
+        this.scheduler.submit(this);
+    }
+
+    /**
+     * Create the emulator configuration used for all Discord playback
+     *
+     * Changing anything here changes the rendered audio, so {@link #CONFIG_ID} must be
+     * bumped along with it.
+     *
+     * @return a new configuration
+     */
+    public static IniConfig createConfig() {
         IniConfig config = new IniConfig();
 
         // Set up audio properties
@@ -40,62 +294,640 @@ public class VoiceSender extends Thread implements AudioSendHandler {
         // Enable high quality resampling
         config.getAudioSection().setSampling(SamplingMethod.RESAMPLE);
 
-        this.player = new SidPlayer(config);
-        this.actionQueue = new LinkedBlockingQueue<Consumer<SidPlayer>>(3);
+        return config;
+    }
 
-        // Start render thread
-        new Thread(this).start();
+    /**
+     * Get the time at which this sender runs out of buffered audio
+     *
+     * @return the deadline in {@link System#nanoTime()} units
+     */
+    @Override
+    public long deadline() {
+        return this.deadline;
     }
 
-    /** Run the render thread */
+    /**
+     * Get how long until this sender should be rendered for
+     *
+     * @param unit the time unit to return
+     */
     @Override
-    public void run() {
-        try {
-            // Create initial buffer
-            this.player.renderFull();
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(
+            this.deadline - RENDER_LEAD_NANOS - System.nanoTime(),
+            TimeUnit.NANOSECONDS
+        );
+    }
+
+    /**
+     * Mark this sender as due for rendering right away
+     *
+     * Must only be called while the sender is not queued on the scheduler.
+     */
+    @Override
+    public void wake() {
+        this.deadline = System.nanoTime();
+    }
+
+    /**
+     * Hold off rendering for this sender for a while
+     *
+     * Must only be called while the sender is not queued on the scheduler.
+     *
+     * @param nanos how long to wait before rendering again
+     */
+    @Override
+    public void postpone(long nanos) {
+        this.deadline = System.nanoTime() + RENDER_LEAD_NANOS + nanos;
+    }
+
+    /**
+     * Run all pending actions, pre-roll upcoming tunes and top up the audio buffer
+     *
+     * Only ever called from a render thread, and never concurrently for one sender.
+     */
+    @Override
+    public void service() throws InterruptedException {
+        // Drain pending actions
+        Consumer<SidPlayer> action;
+        while ((action = this.actionQueue.poll()) != null) {
+            PENDING_ACTIONS.add(-1);
+            action.accept(this.player);
+        }
+
+        // Hand back players the send thread has swapped out or let go of
+        synchronized (this.swapLock) {
+            if (this.retired != null) {
+                this.retire(this.retired);
+                this.retired = null;
+            }
+        }
+        this.releaseRetired();
+
+        // Start the next tune on a spare emulator
+        if (this.preroll == null && !this.upcoming.isEmpty()) {
+            SidPlayer spare = this.pool.acquire();
+            if (spare != null) {
+                QueuedTune next = this.upcoming.poll();
+                spare.setGuild(this.guild);
+                spare.setSampling(this.governor.sampling());
+                spare.play(next.tune, next.path);
+                this.preroll = spare;
+                this.prerollTune = next;
+                this.prerollSkip = next.start;
+                this.prerollBase = -1;
+            }
+        }
+
+        // Bring it to its start a chunk at a time, then fill its buffer ahead of time
+        if (this.preroll != null && this.prerollBase < 0) {
+            this.prerollSkip = this.skipChunk(this.preroll, this.prerollSkip);
+            if (this.prerollSkip == 0) {
+                this.prerollBase = this.preroll.driver().produced();
+                this.governor.record(this.preroll.renderFull().nanos);
+            }
+        }
+
+        // Skip ahead in the current tune a chunk at a time, so a far seek does not hold up
+        // everyone else on this render thread
+        if (this.skipLeft > 0) {
+            this.skipLeft = this.skipChunk(this.rendering, this.skipLeft);
+            if (this.skipLeft == 0) {
+                this.anchor(this.skipTarget);
+            }
+        }
+
+        // Queue the pre-rolled tune up behind the current one once that is done rendering,
+        // or once a pre-rendered tune is about to run out
+        boolean done = this.skipLeft == 0 && (
+            this.rendering == null || this.rendering.driver().produced() >= this.renderEnd
+        );
+        OpusCache.Stream stream = this.cached;
+        int cachedLeft = stream != null ? stream.remaining() : 0;
+        boolean ready = this.preroll != null && this.prerollBase >= 0;
+        if (ready && done && cachedLeft <= CACHED_ARM_FRAMES) {
+            this.arm();
+            done = false;
+        }
 
-            // Accept further commands forever
-            while (true) {
-                this.actionQueue.take().accept(this.player);
+        // Render ahead, never past the end of the current tune
+        long now = System.nanoTime();
+        if (this.rendering != null && !done && this.skipLeft == 0) {
+            RING_FILL.record(this.rendering.driver().available());
+            long left = this.renderEnd - this.rendering.driver().produced();
+            this.rendering.setSampling(this.governor.sampling());
+            SidPlayer.RenderStats stats
+                = this.rendering.render((int) Math.min(this.rendering.driver().free(), left));
+            this.governor.record(stats.nanos);
+            if (stats.frames > 0) {
+                RENDER_FRAME_NANOS.record(stats.nanos / stats.frames);
             }
-        } catch (InterruptedException e) {
-            // Just warn on exceptions
-            LOG.warn("Render thread died! {}", e);
+            now = System.nanoTime();
+        }
+
+        // Work out when buffered audio will run out again
+        SidPlayer playing = this.player;
+        if (playing != null && this.live) {
+            int available = playing.driver().available();
+            if (done && available == 0 && this.preroll == null && this.upcoming.isEmpty()) {
+                // The last tune has played out completely
+                this.stopAll();
+                this.deadline = now + IDLE_NANOS;
+            } else {
+                this.deadline = now + available * FRAME_NANOS;
+            }
+        } else if (cachedLeft > 0 && (this.preroll != null || !this.upcoming.isEmpty())) {
+            // Wake up in time to queue the next tune up behind the pre-rendered one
+            this.deadline = now + Math.min(
+                IDLE_NANOS,
+                Math.max(cachedLeft - CACHED_ARM_FRAMES, 1) * FRAME_NANOS + RENDER_LEAD_NANOS
+            );
+        } else {
+            // Nothing to emulate, so just check back for actions every so often
+            this.deadline = now + IDLE_NANOS;
+        }
+
+        // Come back soon for players the send thread was still using
+        if (!this.retiring.isEmpty()) {
+            this.deadline = Math.min(this.deadline, now + FRAME_NANOS);
+        }
+
+        // Carry on skipping as soon as more urgent work is done
+        if (this.skipLeft > 0 || (this.preroll != null && this.prerollBase < 0)) {
+            this.deadline = Math.min(this.deadline, now + RENDER_LEAD_NANOS);
+        }
+
+        // Come straight back if actions arrived in the meantime
+        if (!this.actionQueue.isEmpty()) {
+            this.deadline = now;
+        }
+    }
+
+    /**
+     * Make the pre-rolled tune the one being rendered
+     *
+     * If nothing is playing live it starts right away, or right after the last packets
+     * of a pre-rendered tune. Otherwise the send thread swaps it in as soon as the
+     * current tune's buffer runs dry.
+     */
+    private void arm() {
+        synchronized (this.swapLock) {
+            if (this.next != null || this.retired != null) {
+                return;
+            }
+
+            if (this.player == null) {
+                this.player = this.preroll;
+                this.live = true;
+            } else {
+                this.next = this.preroll;
+            }
+        }
+
+        LOG.debug("Up next: {}", this.prerollTune.title);
+        this.rendering = this.preroll;
+        this.renderStart = this.prerollBase - this.prerollTune.start;
+        this.renderEnd = this.prerollTune.frames > 0
+            ? this.renderStart + this.prerollTune.frames
+            : Long.MAX_VALUE;
+        this.nowPlaying = this.prerollTune;
+        this.preroll = null;
+        this.prerollTune = null;
+    }
+
+    /**
+     * Anchor the tune being rendered so that it is at a given position right now
+     *
+     * @param position the tune's current position in frames
+     */
+    private void anchor(long position) {
+        this.renderStart = this.rendering.driver().produced() - position;
+        this.renderEnd = this.nowPlaying.frames > 0
+            ? this.renderStart + this.nowPlaying.frames
+            : Long.MAX_VALUE;
+    }
+
+    /**
+     * Skip ahead without audio by at most one chunk
+     *
+     * @param player the player to skip ahead on
+     * @param frames how many frames of emulated time are left to skip
+     *
+     * @return how many frames are left to skip after this chunk
+     */
+    private long skipChunk(SidPlayer player, long frames) throws InterruptedException {
+        if (frames <= 0) {
+            return 0;
+        }
+
+        long chunk = Math.min(frames, SEEK_CHUNK_FRAMES);
+        this.governor.record(player.skip(chunk).nanos);
+        return frames - chunk;
+    }
+
+    /**
+     * Stop all playback and hand every emulator back to the pool
+     *
+     * Players the send thread can see are only retired here, and go back to the pool
+     * once the send thread is done with them.
+     */
+    private void stopAll() {
+        this.live = false;
+        this.cached = null;
+        this.nowPlaying = null;
+
+        HashSet<SidPlayer> players = new HashSet<SidPlayer>();
+        synchronized (this.swapLock) {
+            players.add(this.player);
+            players.add(this.next);
+            players.add(this.retired);
+            this.player = null;
+            this.next = null;
+            this.retired = null;
+        }
+        players.add(this.rendering);
+        players.remove(null);
+        this.rendering = null;
+        this.skipLeft = 0;
+        this.dropPreroll();
+
+        for (SidPlayer retired : players) {
+            this.retire(retired);
         }
+        this.releaseRetired();
     }
 
+    /**
+     * Take a player out of use, to be released once the send thread lets go of it
+     *
+     * Must be called only after the player was removed from every field the send thread
+     * reads.
+     *
+     * @param retired the player to retire
+     */
+    private void retire(SidPlayer retired) {
+        this.retiring.add(retired);
+        this.retiringEpoch = this.sendEpoch;
+    }
+
+    /**
+     * Hand retired players back to the pool if the send thread is done with them
+     *
+     * The send thread is done with them if it was outside {@link #provide20MsAudio()}
+     * when they were last retired, since it finds them gone on its next call, or if it
+     * has left the call it was in since.
+     */
+    private void releaseRetired() {
+        if (this.retiring.isEmpty()) {
+            return;
+        }
+
+        long epoch = this.retiringEpoch;
+        if ((epoch & 1) != 0 && this.sendEpoch == epoch) {
+            return;
+        }
+
+        for (SidPlayer released : this.retiring) {
+            this.pool.release(released);
+        }
+        this.retiring.clear();
+    }
+
+    /**
+     * Get if this sender is done for good, i.e. closed with no actions left to run and
+     * every emulator back in the pool
+     */
+    @Override
+    public boolean finished() {
+        return this.closed && this.actionQueue.isEmpty() && this.retiring.isEmpty();
+    }
+
+    /** Get if there is a tune playing, either pre-rendered or emulated */
     @Override
     public boolean canProvide() {
-        return this.player.driver().hasData();
+        OpusCache.Stream stream = this.cached;
+        boolean playing = (stream != null && stream.hasNext()) || this.live;
+
+        // Track silence for the idle reaper, only writing on changes
+        if (playing && this.silentSince != PLAYING) {
+            this.silentSince = PLAYING;
+        } else if (!playing && this.silentSince == PLAYING) {
+            this.silentSince = System.nanoTime();
+        }
+
+        return playing;
     }
 
+    /**
+     * Get how long this sender has had nothing to play
+     *
+     * @return the silent time in nanoseconds, or 0 if playing
+     */
+    public long silentNanos() {
+        long since = this.silentSince;
+        return since == PLAYING ? 0 : System.nanoTime() - since;
+    }
+
+    /**
+     * Provide the next 20ms of audio
+     *
+     * Pre-rendered tunes are handed out as Opus packets straight from the cache. Emulated
+     * tunes are already encoded by the render thread, and are wait-free: silence is
+     * handed out if rendering has fallen behind. When the current tune's buffer runs dry
+     * and the next tune is ready, the next tune takes over on the very next frame.
+     */
     @Override
     public ByteBuffer provide20MsAudio() {
+        // Only ever written by the send thread, so no atomic increment is needed
+        long epoch = this.sendEpoch;
+        this.sendEpoch = epoch + 1;
+        try {
+            FlightEvents.Provide event = FlightEvents.beginProvide();
+            ByteBuffer frame = this.provideFrame();
+            if (event == null) {
+                return frame;
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                SidPlayer player = this.player;
+                event.guild = this.guild;
+                event.tune = player != null ? player.driver().tune() : null;
+                event.source = frame == null ? "none" : this.live ? "live" : "cache";
+                event.bytes = frame != null ? frame.remaining() : 0;
+                event.commit();
+            }
+            return frame;
+        } finally {
+            this.sendEpoch = epoch + 2;
+        }
+    }
+
+    /**
+     * Pick the next frame to send
+     *
+     * @return the frame, or null if there is nothing to send
+     */
+    private ByteBuffer provideFrame() {
+        OpusCache.Stream stream = this.cached;
+        if (stream != null && stream.hasNext()) {
+            this.providedOpus = true;
+            return stream.next();
+        }
+
+        SidPlayer player = this.player;
+        if (this.next != null && (player == null || !player.driver().hasData())) {
+            player = this.swap();
+        }
+        if (player == null) {
+            this.providedOpus = false;
+            return null;
+        }
+
+        this.providedOpus = player.driver().isOpus();
+        return player.driver().read();
+    }
+
+    /**
+     * Swap the next tune in for the current one
+     *
+     * @return the player now playing
+     */
+    private SidPlayer swap() {
+        synchronized (this.swapLock) {
+            if (this.next != null) {
+                this.retired = this.player;
+                this.player = this.next;
+                this.next = null;
+            }
+            return this.player;
+        }
+    }
+
+    /** Get if the frame just provided is Opus encoded */
+    @Override
+    public boolean isOpus() {
+        return this.providedOpus;
+    }
+
+    /**
+     * Start playing a tune through the emulator right away, clearing the queue
+     *
+     * The tune is pre-rolled on a spare emulator, then swapped in once the current
+     * tune's last buffered frame has been sent. New tunes are refused while the render
+     * threads are shedding load.
+     *
+     * @param queued the tune to play
+     *
+     * @return whether or not the tune will be played
+     */
+    public boolean playLive(QueuedTune queued) {
+        if (this.closed || !this.governor.admit()) {
+            return false;
+        }
+
         this.runInRenderThread(player -> {
-            try {
-                player.renderFull();
-            } catch (InterruptedException e) {
-                // Warn on exceptions
-                LOG.warn("SID render interrupted! {}", e);
+            this.upcoming.clear();
+            this.dropPreroll();
+            this.upcoming.addFirst(queued);
+            this.endCurrent();
+        });
+        return true;
+    }
+
+    /**
+     * Add a tune to the end of the queue
+     *
+     * @param queued the tune to play
+     *
+     * @return whether or not the tune was queued
+     */
+    public boolean enqueue(QueuedTune queued) {
+        if (this.closed) {
+            return false;
+        }
+
+        this.upcoming.add(queued);
+        this.scheduler.expedite(this);
+        return true;
+    }
+
+    /**
+     * Jump to a position in the current tune
+     *
+     * Pre-rendered tunes jump straight to the right packet. Live tunes are emulated
+     * ahead without audio a chunk at a time, and seeking backwards restarts the tune on a
+     * spare emulator, as emulator state cannot be saved and restored.
+     *
+     * @param seconds the position to jump to
+     *
+     * @return completes with whether or not the jump is happening, false if nothing is
+     *     playing or the tune ends before the position
+     */
+    public CompletableFuture<Boolean> seek(long seconds) {
+        CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+        if (this.closed || seconds < 0 || seconds > MAX_SEEK_SECONDS) {
+            result.complete(false);
+            return result;
+        }
+
+        long target = seconds * FRAMES_PER_SECOND;
+        OpusCache.Stream stream = this.cached;
+        if (stream != null && stream.hasNext()) {
+            boolean inside = target < stream.length();
+            if (inside) {
+                stream.seek(target);
+            }
+            result.complete(inside);
+            return result;
+        }
+
+        this.runInRenderThread(player -> result.complete(this.seekLive(target)));
+        return result;
+    }
+
+    /**
+     * Jump to a position in the live tune being rendered
+     *
+     * Audio already buffered from before the jump still plays out.
+     *
+     * @param target the position to jump to in frames
+     *
+     * @return whether or not the jump is happening
+     */
+    private boolean seekLive(long target) {
+        QueuedTune tune = this.nowPlaying;
+        if (this.rendering == null || tune == null) {
+            return false;
+        }
+        boolean ended = this.skipLeft == 0
+            && this.rendering.driver().produced() >= this.renderEnd;
+        if (ended || (tune.frames > 0 && target >= tune.frames)) {
+            return false;
+        }
+
+        // Go backwards by queueing the tune up again from the target, since the send
+        // thread may still be reading from the emulator being rendered
+        long position = this.skipLeft > 0
+            ? this.skipTarget - this.skipLeft
+            : this.rendering.driver().produced() - this.renderStart;
+        if (target < position) {
+            if (this.prerollTune != null) {
+                this.upcoming.addFirst(this.prerollTune);
             }
+            this.dropPreroll();
+            this.upcoming.addFirst(tune.startingAt(target));
+            this.endCurrent();
+            return true;
+        }
+
+        // Go forwards by skipping ahead without audio, re-anchoring the tune once there
+        // so that its end stays put
+        this.skipTarget = target;
+        this.skipLeft = target - position;
+        if (this.skipLeft == 0) {
+            this.anchor(target);
+        }
+        return true;
+    }
+
+    /** Skip to the next tune in the queue, or stop if there is none */
+    public void skip() {
+        this.runInRenderThread(player -> this.endCurrent());
+    }
+
+    /**
+     * Start playing a pre-rendered tune, returning all emulators to the pool
+     *
+     * @param stream the pre-rendered tune to play
+     */
+    public void playCached(OpusCache.Stream stream) {
+        this.runInRenderThread(player -> {
+            this.upcoming.clear();
+            this.stopAll();
+            this.cached = stream;
         });
-        return ByteBuffer.wrap(this.player.driver().read());
     }
 
+    /** Stop playing and clear the queue, returning all emulators to the pool */
+    public void stop() {
+        this.live = false;
+        this.runInRenderThread(player -> {
+            this.upcoming.clear();
+            this.stopAll();
+        });
+    }
+
+    /**
+     * Stop playing for good, returning all emulators to the pool
+     *
+     * The sender drops off the render scheduler once its last actions have run.
+     */
     @Override
-    public boolean isOpus() { return false; }
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.stop();
+        this.closed = true;
+        this.scheduler.expedite(this);
+        ACTIVE_SENDERS.add(-1);
+    }
+
+    /**
+     * Get the tune currently playing live
+     *
+     * @return the tune, or null if nothing is playing live
+     */
+    public QueuedTune nowPlaying() {
+        return this.nowPlaying;
+    }
+
+    /**
+     * Get the tunes waiting to be played, not counting one already pre-rolled
+     *
+     * @return a snapshot of the queue
+     */
+    public List<QueuedTune> upcoming() {
+        return new ArrayList<QueuedTune>(this.upcoming);
+    }
+
+    /** Stop rendering the current tune, letting what is buffered play out */
+    private void endCurrent() {
+        if (this.rendering != null) {
+            this.renderEnd = this.rendering.driver().produced();
+        }
+        this.skipLeft = 0;
+        this.cached = null;
+    }
+
+    /**
+     * Hand a pre-rolled tune's emulator back to the pool without playing it
+     *
+     * The send thread never sees a pre-rolled emulator, so it can go back right away.
+     */
+    private void dropPreroll() {
+        if (this.preroll != null) {
+            this.pool.release(this.preroll);
+            this.preroll = null;
+            this.prerollTune = null;
+            this.prerollSkip = 0;
+        }
+    }
 
     /**
      * Run an action on the SID player in the render thread
      *
+     * The action is passed whichever player the sender is sending from when the action
+     * runs, which may be null if it is not playing live.
+     *
      * @param action the action to run
      */
     public void runInRenderThread(Consumer<SidPlayer> action) {
-        try {
-            this.actionQueue.put(action);
-        } catch (InterruptedException e) {
-            // Warn on exceptions
-            LOG.warn("Render queue interrupted! {}", e);
-        }
+        PENDING_ACTIONS.add(1);
+        this.actionQueue.add(action);
+        this.scheduler.expedite(this);
     }
 }
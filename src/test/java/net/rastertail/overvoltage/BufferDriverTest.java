@@ -0,0 +1,175 @@
+package net.rastertail.overvoltage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the driver's lock-free ring with a real producer and consumer thread
+ *
+ * Every written frame is filled with its own sequence number, so a consumer seeing a
+ * mix of two numbers in one frame has caught a torn write, and a gap in the numbers is
+ * a lost frame.
+ */
+public class BufferDriverTest {
+    /** Number of slots in the ring under test */
+    private static final int RING_SIZE = 6;
+
+    /** Number of frames pushed through the ring by the stress test */
+    private static final int FRAMES = 200_000;
+
+    /** The driver under test, without Opus encoding so frames are compared byte for byte */
+    private BufferDriver driver;
+
+    /** Open a fresh driver */
+    @Before
+    public void open() {
+        this.driver = new BufferDriver(RING_SIZE, false);
+        this.driver.open(VoiceSender.createConfig().getAudioSection(), "", null, null);
+    }
+
+    /** Frames read concurrently with writing arrive whole, in order, and all of them */
+    @Test(timeout = 60_000)
+    public void concurrentReadsSeeEveryFrameWhole() throws Exception {
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread producer = new Thread(() -> {
+            for (long stamp = 1; stamp <= FRAMES; stamp++) {
+                while (this.driver.free() == 0) {
+                    Thread.yield();
+                }
+                this.writeStamped(stamp);
+            }
+        }, "producer");
+        producer.setUncaughtExceptionHandler((t, e) -> failure.set(e));
+        producer.start();
+
+        // Consume until the last frame, skipping silence handed out on underrun and
+        // yielding so that the producer gets to run even on a single core
+        long expected = 1;
+        while (expected <= FRAMES) {
+            long stamp = readStamp(this.driver.read());
+            if (stamp != 0) {
+                assertEquals("frame lost or reordered", expected, stamp);
+                expected++;
+            } else {
+                Thread.yield();
+            }
+            assertTrue("producer failed: " + failure.get(), failure.get() == null);
+        }
+
+        producer.join();
+        assertFalse(this.driver.hasData());
+        assertEquals(FRAMES, this.driver.produced());
+    }
+
+    /** Clearing the ring between bursts only ever drops frames written before the clear */
+    @Test(timeout = 60_000)
+    public void clearOnlyDropsBufferedFrames() throws Exception {
+        int rounds = 2_000;
+        CyclicBarrier paused = new CyclicBarrier(2);
+        CyclicBarrier resumed = new CyclicBarrier(2);
+        long[] firstAfterClear = new long[rounds];
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread producer = new Thread(() -> {
+            long stamp = 1;
+            try {
+                for (int round = 0; round < rounds; round++) {
+                    // Write a burst while the consumer reads, which always fits into
+                    // the ring as it was cleared after the last burst
+                    for (int i = 0; i < RING_SIZE - 1; i++) {
+                        this.writeStamped(stamp++);
+                    }
+
+                    // Clear while the consumer is parked, as the contract requires
+                    paused.await();
+                    this.driver.clear();
+                    firstAfterClear[round] = stamp;
+                    resumed.await();
+                }
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        }, "producer");
+        producer.start();
+
+        long last = 0;
+        for (int round = 0; round < rounds; round++) {
+            // Read part of the burst, then park for the clear
+            for (int i = 0; i < 2; i++) {
+                long stamp = readStamp(this.driver.read());
+                if (stamp != 0) {
+                    assertTrue("frame reordered", stamp > last);
+                    last = stamp;
+                }
+            }
+            paused.await();
+            resumed.await();
+
+            // Nothing from before the clear may be read afterwards
+            ByteBuffer frame = this.driver.read();
+            long stamp = readStamp(frame);
+            assertTrue(
+                "read a frame written before the clear",
+                stamp == 0 || stamp >= firstAfterClear[round]
+            );
+            if (stamp != 0) {
+                last = stamp;
+            }
+        }
+
+        producer.join();
+        assertTrue("producer failed: " + failure.get(), failure.get() == null);
+    }
+
+    /** A full ring drops new frames rather than overwriting ones not yet read */
+    @Test
+    public void fullRingDropsNewestFrames() {
+        int capacity = RING_SIZE - 1;
+        for (long stamp = 1; stamp <= capacity + 3; stamp++) {
+            this.writeStamped(stamp);
+        }
+
+        assertTrue(this.driver.full());
+        assertEquals(capacity + 3, this.driver.produced());
+        for (long stamp = 1; stamp <= capacity; stamp++) {
+            assertEquals(stamp, readStamp(this.driver.read()));
+        }
+        assertEquals(0, readStamp(this.driver.read()));
+    }
+
+    /**
+     * Fill the mixer buffer with a stamp and write it to the ring
+     *
+     * @param stamp the stamp to fill every word of the frame with
+     */
+    private void writeStamped(long stamp) {
+        ByteBuffer buffer = this.driver.buffer();
+        for (int i = 0; i + Long.BYTES <= buffer.capacity(); i += Long.BYTES) {
+            buffer.putLong(i, stamp);
+        }
+        this.driver.write();
+    }
+
+    /**
+     * Read the stamp of a frame, failing if the frame is torn
+     *
+     * @param frame the frame handed out by the driver
+     *
+     * @return the frame's stamp, or 0 for silence
+     */
+    private static long readStamp(ByteBuffer frame) {
+        long stamp = frame.getLong(frame.position());
+        for (int i = frame.position(); i + Long.BYTES <= frame.limit(); i += Long.BYTES) {
+            assertEquals("torn frame", stamp, frame.getLong(i));
+        }
+        return stamp;
+    }
+}
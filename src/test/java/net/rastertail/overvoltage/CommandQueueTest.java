@@ -0,0 +1,134 @@
+package net.rastertail.overvoltage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for per-guild command ordering and deadlines */
+public class CommandQueueTest {
+    /** How long a command may take, in seconds */
+    private static final long TIMEOUT_SECONDS = 1;
+
+    /** How long to wait for something which should happen, in seconds */
+    private static final long WAIT_SECONDS = 5;
+
+    /** The queue under test */
+    private CommandQueue queue;
+
+    /** Set up a queue with more threads than guilds used */
+    @Before
+    public void setUp() {
+        this.queue = new CommandQueue(2, 16, TIMEOUT_SECONDS);
+    }
+
+    /** Stop the queue */
+    @After
+    public void tearDown() {
+        this.queue.close();
+    }
+
+    /** Commands for the same guild run one at a time, in order */
+    @Test
+    public void commandsOfAGuildRunInOrder() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            int n = i;
+            assertTrue(this.queue.submit("guild", () -> {
+                order.add(n);
+                done.countDown();
+            }, () -> {}));
+        }
+
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(List.of(0, 1, 2, 3), order);
+    }
+
+    /** A command stuck behind a blocked one times out on time, and never runs */
+    @Test
+    public void blockedLaneStillTimesOutWaitingCommands() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blockerDone = new CountDownLatch(1);
+        CountDownLatch waiterTimedOut = new CountDownLatch(1);
+        AtomicBoolean waiterRan = new AtomicBoolean();
+
+        // Block the lane with a command which ignores interrupts
+        this.queue.submit("guild", () -> {
+            while (true) {
+                try {
+                    release.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // Keep blocking
+                }
+            }
+            blockerDone.countDown();
+        }, () -> {});
+        this.queue.submit("guild", () -> waiterRan.set(true), waiterTimedOut::countDown);
+
+        // The waiting command must time out while the lane is still blocked
+        assertTrue(waiterTimedOut.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, blockerDone.getCount());
+
+        // Once the lane moves again, the timed out command is skipped
+        release.countDown();
+        assertTrue(blockerDone.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        CountDownLatch after = new CountDownLatch(1);
+        this.queue.submit("guild", after::countDown, () -> {});
+        assertTrue(after.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(waiterRan.get());
+    }
+
+    /** A command still running at its deadline is interrupted after its timeout handler */
+    @Test
+    public void runningCommandIsInterruptedAtItsDeadline() throws Exception {
+        CountDownLatch timedOut = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicBoolean handlerFirst = new AtomicBoolean();
+
+        this.queue.submit("guild", () -> {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+            } catch (InterruptedException e) {
+                handlerFirst.set(timedOut.getCount() == 0);
+                interrupted.countDown();
+            }
+        }, timedOut::countDown);
+
+        assertTrue(interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(handlerFirst.get());
+
+        // The interrupt must not leak into the next command on the same thread
+        AtomicBoolean leaked = new AtomicBoolean(true);
+        CountDownLatch next = new CountDownLatch(1);
+        this.queue.submit("guild", () -> {
+            leaked.set(Thread.currentThread().isInterrupted());
+            next.countDown();
+        }, () -> {});
+        assertTrue(next.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(leaked.get());
+    }
+
+    /** A command which finishes in time never has its timeout handler run */
+    @Test
+    public void finishedCommandDoesNotTimeOut() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean timedOut = new AtomicBoolean();
+        this.queue.submit("guild", done::countDown, () -> timedOut.set(true));
+
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS) * 2);
+        assertFalse(timedOut.get());
+    }
+}
@@ -0,0 +1,68 @@
+package net.rastertail.overvoltage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for saving and loading the index manifest */
+public class ManifestTest {
+    /** Directory for manifest files */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** A saved manifest loads back the same */
+    @Test
+    public void savedManifestLoadsBack() throws Exception {
+        Path file = this.folder.getRoot().toPath().resolve("manifest");
+        Manifest manifest = new Manifest();
+        manifest.put("/MUSICIANS/H/Hubbard_Rob/Commando.sid", new Manifest.Entry(
+            8192,
+            1_000_000,
+            "9a6d33b195c0702d5d749debc3461f26"
+        ));
+        manifest.save(file);
+
+        Manifest.Entry entry = Manifest.load(file).get("/MUSICIANS/H/Hubbard_Rob/Commando.sid");
+        assertEquals(8192, entry.size);
+        assertEquals(1_000_000, entry.mtime);
+        assertEquals("9a6d33b195c0702d5d749debc3461f26", entry.md5);
+    }
+
+    /** A missing manifest is not an error */
+    @Test
+    public void missingManifestLoadsAsNull() throws Exception {
+        assertNull(Manifest.load(this.folder.getRoot().toPath().resolve("missing")));
+    }
+
+    /** A manifest with too few fields is ignored rather than failing startup */
+    @Test
+    public void truncatedManifestLoadsAsNull() throws Exception {
+        assertNull(Manifest.load(this.write("/Commando.sid\t8192\t1000000\n")));
+    }
+
+    /** A manifest with a bad number is ignored rather than failing startup */
+    @Test
+    public void unparseableManifestLoadsAsNull() throws Exception {
+        assertNull(Manifest.load(this.write("/Commando.sid\t8k\t1000000\tabcdef\n")));
+    }
+
+    /**
+     * Write a manifest file
+     *
+     * @param contents the manifest contents
+     *
+     * @return the manifest file
+     */
+    private Path write(String contents) throws Exception {
+        Path file = this.folder.newFile().toPath();
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,129 @@
+package net.rastertail.overvoltage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import libsidplay.common.SamplingMethod;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for stepping quality down under load and back up once it eases */
+public class QualityGovernorTest {
+    /** Number of render threads sharing the load */
+    private static final int THREADS = 2;
+
+    /** Load percentage above which quality steps down */
+    private static final int DEGRADE_PERCENT = 80;
+
+    /** Load percentage below which quality may step back up */
+    private static final int RESTORE_PERCENT = 50;
+
+    /** Seconds of low load, and so checks, before quality steps back up */
+    private static final int RESTORE_SECONDS = 3;
+
+    /** Time between checks, in nanoseconds */
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** The fake clock, in nanoseconds */
+    private long now;
+
+    /** The governor under test */
+    private QualityGovernor governor;
+
+    /** Set up a governor on a fake clock */
+    @Before
+    public void setUp() {
+        this.governor = new QualityGovernor(
+            THREADS,
+            DEGRADE_PERCENT,
+            RESTORE_PERCENT,
+            RESTORE_SECONDS,
+            () -> this.now
+        );
+    }
+
+    /** Quality steps down one level per two overloaded checks, and no further */
+    @Test
+    public void sustainedLoadStepsDownToShedding() {
+        this.checkAt(90);
+        assertEquals(QualityGovernor.Level.FULL, this.governor.level());
+        this.checkAt(90);
+        assertEquals(QualityGovernor.Level.REDUCED, this.governor.level());
+        assertEquals(SamplingMethod.DECIMATE, this.governor.sampling());
+
+        this.checkAt(90);
+        this.checkAt(90);
+        assertEquals(QualityGovernor.Level.SHEDDING, this.governor.level());
+
+        this.checkAt(100);
+        this.checkAt(100);
+        assertEquals(QualityGovernor.Level.SHEDDING, this.governor.level());
+    }
+
+    /** A single spike, or load right at the high water mark, does not step down */
+    @Test
+    public void briefOrBorderlineLoadKeepsQuality() {
+        this.checkAt(90);
+        this.checkAt(60);
+        this.checkAt(90);
+        this.checkAt(DEGRADE_PERCENT);
+        this.checkAt(DEGRADE_PERCENT);
+        assertEquals(QualityGovernor.Level.FULL, this.governor.level());
+        assertEquals(SamplingMethod.RESAMPLE, this.governor.sampling());
+    }
+
+    /** Quality steps back up one level per stretch of low load, and not before */
+    @Test
+    public void lowLoadRestoresQualityStepByStep() {
+        for (int i = 0; i < 4; i++) {
+            this.checkAt(90);
+        }
+        assertEquals(QualityGovernor.Level.SHEDDING, this.governor.level());
+
+        // Load in between the marks interrupts the stretch
+        this.checkAt(10);
+        this.checkAt(10);
+        this.checkAt(60);
+        this.checkAt(10);
+        this.checkAt(10);
+        assertEquals(QualityGovernor.Level.SHEDDING, this.governor.level());
+
+        this.checkAt(10);
+        assertEquals(QualityGovernor.Level.REDUCED, this.governor.level());
+        for (int i = 0; i < RESTORE_SECONDS; i++) {
+            this.checkAt(10);
+        }
+        assertEquals(QualityGovernor.Level.FULL, this.governor.level());
+    }
+
+    /** New tunes are only refused while shedding */
+    @Test
+    public void onlySheddingRefusesTunes() {
+        assertTrue(this.governor.admit());
+        this.checkAt(90);
+        this.checkAt(90);
+        assertTrue(this.governor.admit());
+        this.checkAt(90);
+        this.checkAt(90);
+        assertFalse(this.governor.admit());
+
+        for (int i = 0; i < RESTORE_SECONDS; i++) {
+            this.checkAt(10);
+        }
+        assertTrue(this.governor.admit());
+    }
+
+    /**
+     * Spend a second at the given load, then check it
+     *
+     * @param percent the render threads' load over the second
+     */
+    private void checkAt(long percent) {
+        this.governor.record(SECOND * THREADS * percent / 100);
+        this.now += SECOND;
+        this.governor.check();
+    }
+}
@@ -0,0 +1,129 @@
+package net.rastertail.overvoltage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/** Tests for render thread shutdown and failure handling */
+public class RenderSchedulerTest {
+    /** How long to wait for something which should happen, in seconds */
+    private static final long WAIT_SECONDS = 5;
+
+    /** A task which runs a given action on every service, and is always due */
+    private static class Task implements RenderTask {
+        /** The service action */
+        private final Service action;
+
+        /** When the task is next due, in {@link System#nanoTime()} time */
+        private volatile long deadline = System.nanoTime();
+
+        /** Number of times the task was serviced */
+        final AtomicInteger services = new AtomicInteger();
+
+        /** Counted down on every service */
+        final CountDownLatch serviced = new CountDownLatch(1);
+
+        /**
+         * Construct a new task
+         *
+         * @param action run on every service
+         */
+        Task(Service action) {
+            this.action = action;
+        }
+
+        @Override
+        public long deadline() {
+            return this.deadline;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(this.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void wake() {
+            this.deadline = System.nanoTime();
+        }
+
+        @Override
+        public void postpone(long nanos) {
+            this.deadline = System.nanoTime() + nanos;
+        }
+
+        @Override
+        public void service() throws InterruptedException {
+            this.services.incrementAndGet();
+            this.serviced.countDown();
+            this.action.run();
+        }
+
+        @Override
+        public boolean finished() {
+            return false;
+        }
+    }
+
+    /** A service action */
+    private interface Service {
+        /**
+         * Run the action
+         *
+         * @throws InterruptedException if interrupted
+         */
+        void run() throws InterruptedException;
+    }
+
+    /** Closing stops a worker blocked inside a service which gives up when interrupted */
+    @Test(timeout = 10_000)
+    public void closeStopsWorkersInterruptedInService() throws Exception {
+        RenderScheduler scheduler = new RenderScheduler(1);
+        Task task = new Task(() -> Thread.sleep(TimeUnit.SECONDS.toMillis(60)));
+        scheduler.submit(task);
+        assertTrue(task.serviced.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        scheduler.close();
+        assertEquals(1, task.services.get());
+    }
+
+    /** Closing stops a worker even if the service swallows the interrupt */
+    @Test(timeout = 10_000)
+    public void closeStopsWorkersWhoseServiceSwallowsInterrupts() throws Exception {
+        RenderScheduler scheduler = new RenderScheduler(1);
+        Task task = new Task(() -> {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(60));
+            } catch (InterruptedException e) {
+                // Swallowed
+            }
+        });
+        scheduler.submit(task);
+        assertTrue(task.serviced.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        scheduler.close();
+        assertEquals(1, task.services.get());
+    }
+
+    /** A task which keeps throwing is backed off rather than serviced in a hot loop */
+    @Test(timeout = 10_000)
+    public void failingTasksAreBackedOff() throws Exception {
+        RenderScheduler scheduler = new RenderScheduler(1);
+        Task task = new Task(() -> {
+            throw new IllegalStateException("broken");
+        });
+        scheduler.submit(task);
+        Thread.sleep(500);
+        scheduler.close();
+
+        // 50 ms, 100 ms, 200 ms, then 400 ms of backoff fit in half a second
+        assertTrue(task.services.get() >= 2);
+        assertFalse(task.services.get() > 5);
+    }
+}
@@ -0,0 +1,243 @@
+package net.rastertail.overvoltage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for query normalization, coalescing and invalidation of cached searches */
+public class SearchCacheTest {
+    /** How long to wait for something which should happen, in seconds */
+    private static final long WAIT_SECONDS = 5;
+
+    /** Number of searches joining one already running */
+    private static final int WAITERS = 3;
+
+    /** The cache under test */
+    private SearchCache cache;
+
+    /** Threads running concurrent searches */
+    private ExecutorService threads;
+
+    /** Number of searches which actually ran */
+    private AtomicInteger loads;
+
+    /** Set up an empty cache */
+    @Before
+    public void setUp() {
+        this.cache = new SearchCache(2);
+        this.threads = Executors.newCachedThreadPool();
+        this.loads = new AtomicInteger();
+    }
+
+    /** Stop the search threads */
+    @After
+    public void tearDown() {
+        this.threads.shutdownNow();
+    }
+
+    /** Whitespace collapses and words are lower-cased, but query keywords keep their case */
+    @Test
+    public void normalizationKeepsKeywords() {
+        assertEquals("rob hubbard", SearchCache.normalize("  Rob \t HUBBARD "));
+        assertEquals(
+            "hubbard AND commando OR NOT monty",
+            SearchCache.normalize("Hubbard AND Commando OR NOT Monty")
+        );
+        assertEquals("year:[1985 TO 1987]", SearchCache.normalize("YEAR:[1985 TO 1987]"));
+        assertEquals("rock and roll", SearchCache.normalize("Rock and Roll"));
+    }
+
+    /** A repeated query is answered from the cache, with a copy of the results */
+    @Test
+    public void repeatedQueriesHitTheCache() throws Exception {
+        ArrayList<SidDatabase.SidInfo> first = this.cache.get("commando", this.results(2));
+        ArrayList<SidDatabase.SidInfo> second = this.cache.get("commando", this.results(2));
+
+        assertEquals(1, this.loads.get());
+        assertEquals(2, second.size());
+        assertTrue(first != second);
+        assertEquals(1, this.cache.hits());
+        assertEquals(1, this.cache.misses());
+    }
+
+    /** The least recently used query is evicted once the cache is full */
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception {
+        this.cache.get("a", this.results(1));
+        this.cache.get("b", this.results(1));
+        this.cache.get("a", this.results(1));
+        this.cache.get("c", this.results(1));
+        assertEquals(2, this.cache.size());
+        assertEquals(1, this.cache.evictions());
+
+        this.cache.get("a", this.results(1));
+        this.cache.get("b", this.results(1));
+        assertEquals(4, this.loads.get());
+    }
+
+    /** Identical searches running at once share a single search */
+    @Test
+    public void identicalSearchesAreCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SearchCache.Loader blocked = query -> {
+            this.loads.incrementAndGet();
+            SearchCacheTest.hold(release);
+            return new ArrayList<SidDatabase.SidInfo>(
+                Collections.<SidDatabase.SidInfo>nCopies(3, null)
+            );
+        };
+
+        List<Future<ArrayList<SidDatabase.SidInfo>>> searches = this.startSearches(blocked);
+        release.countDown();
+        for (Future<ArrayList<SidDatabase.SidInfo>> search : searches) {
+            assertEquals(3, search.get(WAIT_SECONDS, TimeUnit.SECONDS).size());
+        }
+        assertEquals(1, this.loads.get());
+        assertEquals(WAITERS, this.cache.coalesced());
+    }
+
+    /** A failed search fails every search waiting on it, and caches nothing */
+    @Test
+    public void failedSearchFailsEveryWaiter() throws Exception {
+        IOException failure = new IOException("index gone");
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<ArrayList<SidDatabase.SidInfo>>> searches = this.startSearches(query -> {
+            this.loads.incrementAndGet();
+            SearchCacheTest.hold(release);
+            throw failure;
+        });
+        release.countDown();
+
+        for (Future<ArrayList<SidDatabase.SidInfo>> search : searches) {
+            try {
+                search.get(WAIT_SECONDS, TimeUnit.SECONDS);
+                fail("search should have failed");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(0, this.cache.size());
+
+        // The next search runs again rather than getting the failure
+        assertEquals(1, this.cache.get("commando", this.results(1)).size());
+        assertEquals(2, this.loads.get());
+    }
+
+    /** Errors thrown by a search also reach every waiter instead of stranding them */
+    @Test
+    public void searchErrorsReachEveryWaiter() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<ArrayList<SidDatabase.SidInfo>>> searches = this.startSearches(query -> {
+            SearchCacheTest.hold(release);
+            throw new StackOverflowError();
+        });
+        release.countDown();
+
+        for (Future<ArrayList<SidDatabase.SidInfo>> search : searches) {
+            try {
+                search.get(WAIT_SECONDS, TimeUnit.SECONDS);
+                fail("search should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof StackOverflowError);
+            }
+        }
+    }
+
+    /** Results of a search which started before an invalidation are not cached */
+    @Test
+    public void staleResultsAreNotCachedAcrossInvalidation() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<ArrayList<SidDatabase.SidInfo>> stale = this.threads.submit(
+            () -> this.cache.get("commando", query -> {
+                this.loads.incrementAndGet();
+                started.countDown();
+                SearchCacheTest.hold(release);
+                return new ArrayList<SidDatabase.SidInfo>();
+            })
+        );
+        assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        this.cache.invalidate();
+        release.countDown();
+        assertEquals(0, stale.get(WAIT_SECONDS, TimeUnit.SECONDS).size());
+        assertEquals(0, this.cache.size());
+
+        // The same query searches the new index rather than joining the stale search
+        assertEquals(2, this.cache.get("commando", this.results(2)).size());
+        assertEquals(2, this.loads.get());
+        assertEquals(1, this.cache.size());
+    }
+
+    /**
+     * Start one search for a query, then wait for more identical ones to join it
+     *
+     * @param loader the search to run, which must block until released
+     *
+     * @return the running searches
+     */
+    private List<Future<ArrayList<SidDatabase.SidInfo>>> startSearches(
+        SearchCache.Loader loader
+    ) throws InterruptedException {
+        List<Future<ArrayList<SidDatabase.SidInfo>>> searches
+            = new ArrayList<Future<ArrayList<SidDatabase.SidInfo>>>();
+        for (int i = 0; i <= WAITERS; i++) {
+            searches.add(this.threads.submit(() -> this.cache.get("commando", loader)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (this.cache.coalesced() < WAITERS) {
+            assertTrue("searches did not coalesce", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        return searches;
+    }
+
+    /**
+     * Block a search until released
+     *
+     * @param release the latch releasing the search
+     *
+     * @throws IOException if interrupted while blocked
+     */
+    private static void hold(CountDownLatch release) throws IOException {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new IOException("search interrupted", e);
+        }
+    }
+
+    /**
+     * Make a search returning a given number of results
+     *
+     * @param count the number of results
+     *
+     * @return the search
+     */
+    private SearchCache.Loader results(int count) {
+        return query -> {
+            this.loads.incrementAndGet();
+            return new ArrayList<SidDatabase.SidInfo>(
+                Collections.<SidDatabase.SidInfo>nCopies(count, null)
+            );
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package net.rastertail.overvoltage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for loading and looking up the HVSC song length database */
+public class SongLengthsTest {
+    /** Directory for tune files and broken databases */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The database loaded from the fixture */
+    private SongLengths db;
+
+    /** Load the fixture database */
+    @Before
+    public void setUp() throws Exception {
+        Path fixture = Paths.get(SongLengthsTest.class.getResource("/Songlengths.md5").toURI());
+        this.db = SongLengths.load(fixture);
+    }
+
+    /** Comment and section lines are skipped, and duplicates counted once */
+    @Test
+    public void onlyEntriesAreCounted() {
+        assertEquals(4, this.db.size());
+    }
+
+    /** Plain minutes and seconds */
+    @Test
+    public void parsesMinutesAndSeconds() throws Exception {
+        assertEquals(194_000, this.db.lookup(this.tune("one"), 1));
+    }
+
+    /** Milliseconds and attribute suffixes, one length per song */
+    @Test
+    public void parsesMillisecondsAndSuffixes() throws Exception {
+        Path two = this.tune("two");
+        assertEquals(5_000, this.db.lookup(two, 1));
+        assertEquals(62_500, this.db.lookup(two, 2));
+        assertEquals(720_001, this.db.lookup(two, 3));
+    }
+
+    /** Digests are matched whatever their case in the database */
+    @Test
+    public void matchesUpperCaseDigests() throws Exception {
+        assertEquals(30_000, this.db.lookup(this.tune("three"), 1));
+    }
+
+    /** A later entry for the same tune replaces the earlier one */
+    @Test
+    public void laterDuplicatesWin() throws Exception {
+        Path four = this.tune("four");
+        assertEquals(120_000, this.db.lookup(four, 1));
+        assertEquals(150_000, this.db.lookup(four, 2));
+    }
+
+    /** Songs out of range and tunes not in the database are unknown */
+    @Test
+    public void unknownLookupsReturnMinusOne() throws Exception {
+        Path two = this.tune("two");
+        assertEquals(-1, this.db.lookup(two, 0));
+        assertEquals(-1, this.db.lookup(two, 4));
+        assertEquals(-1, this.db.lookup(this.tune("five"), 1));
+    }
+
+    /** A malformed length fails loading rather than being skipped */
+    @Test(expected = IOException.class)
+    public void malformedLengthsFailLoading() throws Exception {
+        Path broken = this.folder.newFile("broken.md5").toPath();
+        Files.write(
+            broken,
+            "9a6d33b195c0702d5d749debc3461f26=3m14s\r\n".getBytes(StandardCharsets.ISO_8859_1)
+        );
+        SongLengths.load(broken);
+    }
+
+    /**
+     * Write one of the fixture tunes, whose digests are listed in the fixture database
+     *
+     * @param name the name of the tune
+     *
+     * @return the tune file
+     */
+    private Path tune(String name) throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve(name + ".sid");
+        Files.write(file, ("PSID tune " + name).getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
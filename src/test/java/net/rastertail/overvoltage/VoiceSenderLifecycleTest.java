@@ -0,0 +1,208 @@
+package net.rastertail.overvoltage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import libsidplay.sidtune.SidTune;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Leak test for voice senders, checking that repeatedly joining, playing, stopping and
+ * leaving hands every emulator back to the pool and drops every sender off the render
+ * threads, with heap usage staying flat
+ */
+public class VoiceSenderLifecycleTest {
+    /** Maximum number of emulators in the pool */
+    private static final int MAX_PLAYERS = 3;
+
+    /** Number of join/leave cycles to run */
+    private static final int CYCLES = 60;
+
+    /** Number of cycles to run before measuring the heap, so that it has settled */
+    private static final int WARMUP_CYCLES = 10;
+
+    /** How much the heap may grow across all measured cycles, in bytes */
+    private static final long MAX_HEAP_GROWTH = 16L * 1024 * 1024;
+
+    /** How long to wait for the render threads to catch up, in milliseconds */
+    private static final long SETTLE_MILLIS = 5000;
+
+    /** Directory for the test tune */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The render threads under test */
+    private RenderScheduler scheduler;
+
+    /** The emulator pool under test */
+    private PlayerPool pool;
+
+    /** Quality governor, never shedding */
+    private QualityGovernor governor;
+
+    /** The test tune */
+    private File tuneFile;
+
+    /** Set up the render threads, pool and test tune */
+    @Before
+    public void setUp() throws Exception {
+        this.scheduler = new RenderScheduler(2);
+        this.pool = new PlayerPool(MAX_PLAYERS, 1, 60);
+        this.governor = new QualityGovernor(2, 0, 0, 1);
+
+        this.tuneFile = this.folder.newFile("idle.sid");
+        Files.write(this.tuneFile.toPath(), idleTune());
+    }
+
+    /** Tear down the render threads and pool */
+    @After
+    public void tearDown() throws Exception {
+        this.scheduler.close();
+        this.pool.close();
+        this.governor.close();
+    }
+
+    /** Join, play two tunes, seek, stop and leave over and over */
+    @Test
+    public void repeatedSessionsReleaseEverything() throws Exception {
+        long baseline = 0;
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            if (cycle == WARMUP_CYCLES) {
+                baseline = usedHeap();
+            }
+
+            VoiceSender sender = new VoiceSender("guild", this.scheduler, this.pool, this.governor);
+            assertTrue(sender.playLive(this.queue()));
+            assertTrue(sender.enqueue(this.queue()));
+            this.provideUntil(sender, () -> sender.nowPlaying() != null);
+            this.provide(sender, 10);
+            assertTrue(sender.seek(2).get(SETTLE_MILLIS, TimeUnit.MILLISECONDS));
+            this.provide(sender, 10);
+
+            // Alternate between stopping first and leaving while playing
+            if (cycle % 2 == 0) {
+                sender.stop();
+                this.provide(sender, 5);
+            }
+            sender.close();
+            this.provideUntil(sender, () -> this.scheduler.size() == 0);
+
+            assertTrue(sender.finished());
+            assertEquals(this.pool.size(), this.pool.idle());
+            assertTrue(this.pool.size() <= MAX_PLAYERS);
+        }
+
+        long growth = usedHeap() - baseline;
+        assertTrue("heap grew by " + growth + " bytes", growth < MAX_HEAP_GROWTH);
+    }
+
+    /** Closing a sender which never played anything takes it off the render threads */
+    @Test
+    public void closingAnIdleSenderFinishesIt() throws Exception {
+        VoiceSender sender = new VoiceSender("guild", this.scheduler, this.pool, this.governor);
+        sender.close();
+        this.provideUntil(sender, () -> this.scheduler.size() == 0);
+
+        assertTrue(sender.finished());
+        assertFalse(sender.playLive(this.queue()));
+        assertEquals(this.pool.size(), this.pool.idle());
+    }
+
+    /**
+     * Load the test tune
+     *
+     * @return the tune, ready to play
+     */
+    private VoiceSender.QueuedTune queue() throws Exception {
+        SidTune tune = SidTune.load(this.tuneFile);
+        tune.getInfo().setSelectedSong(tune.getInfo().getStartSong());
+        tune.prepare();
+        return new VoiceSender.QueuedTune(tune, "idle.sid", "Idle", 30_000);
+    }
+
+    /**
+     * Pull frames as Discord's send thread would
+     *
+     * @param sender the sender to pull from
+     * @param frames how many frame intervals to pull for
+     */
+    private void provide(VoiceSender sender, int frames) throws InterruptedException {
+        for (int i = 0; i < frames; i++) {
+            if (sender.canProvide()) {
+                ByteBuffer frame = sender.provide20MsAudio();
+                if (frame != null) {
+                    frame.position(frame.limit());
+                }
+            }
+            Thread.sleep(2);
+        }
+    }
+
+    /**
+     * Pull frames until a condition holds, failing if it takes too long
+     *
+     * @param sender the sender to pull from
+     * @param condition the condition to wait for
+     */
+    private void provideUntil(
+        VoiceSender sender,
+        BooleanSupplier condition
+    ) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            this.provide(sender, 1);
+        }
+    }
+
+    /**
+     * Measure the heap in use after collecting garbage
+     *
+     * @return the used heap, in bytes
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Build a minimal PSID tune whose init and play routines return immediately
+     *
+     * @return the tune file's contents
+     */
+    private static byte[] idleTune() {
+        ByteBuffer psid = ByteBuffer.allocate(0x7c + 6);
+        psid.put("PSID".getBytes(StandardCharsets.US_ASCII));
+        psid.putShort((short) 2); // Version
+        psid.putShort((short) 0x7c); // Data offset
+        psid.putShort((short) 0); // Load address, taken from the data
+        psid.putShort((short) 0x1000); // Init address
+        psid.putShort((short) 0x1003); // Play address
+        psid.putShort((short) 1); // Songs
+        psid.putShort((short) 1); // Start song
+        psid.putInt(0); // Speed, all songs on vertical blank
+
+        // Name, author and release, then flags and SID addresses, all left zero
+        psid.position(0x7c);
+
+        // Load at $1000: RTS, padding, RTS
+        psid.put(new byte[] { 0x00, 0x10, 0x60, 0x00, 0x00, 0x60 });
+        return psid.array();
+    }
+}